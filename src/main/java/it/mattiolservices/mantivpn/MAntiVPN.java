@@ -10,11 +10,29 @@ import com.velocitypowered.api.plugin.Plugin;
 import com.velocitypowered.api.plugin.annotation.DataDirectory;
 import com.velocitypowered.api.proxy.ProxyServer;
 import it.mattiolservices.mantivpn.alert.manager.AlertManager;
+import it.mattiolservices.mantivpn.api.AntiVPNProvider;
+import it.mattiolservices.mantivpn.api.AntiVPNService;
+import it.mattiolservices.mantivpn.api.LookupAntiVPNService;
+import it.mattiolservices.mantivpn.antivpn.blocklist.BlocklistIndex;
 import it.mattiolservices.mantivpn.antivpn.cache.AntiVPNCache;
+import it.mattiolservices.mantivpn.antivpn.enforcement.DeferredEnforcer;
+import it.mattiolservices.mantivpn.antivpn.lookup.IPLookupService;
 import it.mattiolservices.mantivpn.antivpn.manager.AntiVPNManager;
+import it.mattiolservices.mantivpn.antivpn.pipeline.DecisionPipeline;
+import it.mattiolservices.mantivpn.antivpn.quota.ApiQuota;
+import it.mattiolservices.mantivpn.antivpn.range.IPRangeDatabase;
+import it.mattiolservices.mantivpn.antivpn.reputation.ReputationStore;
+import it.mattiolservices.mantivpn.antivpn.scan.PlayerScanner;
+import it.mattiolservices.mantivpn.antivpn.sweeper.ReevaluationSweeper;
+import it.mattiolservices.mantivpn.antivpn.tor.TorExitIndex;
+import it.mattiolservices.mantivpn.antivpn.trace.TraceRecorder;
+import it.mattiolservices.mantivpn.antivpn.warmup.CacheWarmupManager;
+import it.mattiolservices.mantivpn.audit.AuditLogManager;
 import it.mattiolservices.mantivpn.commands.AntiVPNCMD;
 import it.mattiolservices.mantivpn.config.ConfigManager;
 import it.mattiolservices.mantivpn.discord.DiscordWebhookManager;
+import it.mattiolservices.mantivpn.http.HttpTransport;
+import it.mattiolservices.mantivpn.listener.EarlyRejectListener;
 import it.mattiolservices.mantivpn.listener.JoinListener;
 import lombok.Getter;
 import org.slf4j.Logger;
@@ -54,9 +72,26 @@ public class MAntiVPN {
 
     @Getter
     private AntiVPNManager antiVPNManager;
+    private ApiQuota apiQuota;
+    private HttpTransport httpTransport;
     private AntiVPNCache antiVPNCache;
+    private CacheWarmupManager cacheWarmupManager;
+    private BlocklistIndex blocklistIndex;
+    private IPRangeDatabase ipRangeDatabase;
+    private TorExitIndex torExitIndex;
+    private ReputationStore reputationStore;
+    private IPLookupService ipLookupService;
+    private DecisionPipeline decisionPipeline;
+    private AntiVPNService antiVPNService;
+    private PlayerScanner playerScanner;
+    private ReevaluationSweeper reevaluationSweeper;
     private AlertManager alertManager;
     private DiscordWebhookManager discordWebhookManager;
+    private AuditLogManager auditLogManager;
+    private JoinListener joinListener;
+    private EarlyRejectListener earlyRejectListener;
+    private DeferredEnforcer deferredEnforcer;
+    private TraceRecorder traceRecorder;
 
     @Inject
     public MAntiVPN(ProxyServer server, Logger logger, @DataDirectory Path dataDirectory) {
@@ -82,22 +117,67 @@ public class MAntiVPN {
         ConfigManager.load();
         getLogger().info("[/] Config Loaded!");
         getLogger().info("");
+        getLogger().info("[/] Opening HTTP connections...");
+        this.httpTransport = new HttpTransport();
+        getLogger().info("[/] HTTP transport ready!");
+        getLogger().info("");
         getLogger().info("[/] Loading AntiVPN Cache...");
         this.antiVPNCache = new AntiVPNCache(configManager);
         getLogger().info("[/] AntiVPN Cache Loaded!");
         getLogger().info("");
         getLogger().info("[/] Loading AntiVPN Service...");
-        this.antiVPNManager = new AntiVPNManager(configManager, logger);
+        this.apiQuota = new ApiQuota();
+        this.antiVPNManager = new AntiVPNManager(configManager, logger, httpTransport, apiQuota);
         getLogger().info("[/] AntiVPN Service Loaded!");
         getLogger().info("");
-        getLogger().info("[/] Loading Alert Manager...");
-        this.alertManager = new AlertManager(server);
-        getLogger().info("[/] Alert Manager Loaded!");
+        if (configManager.getConfig().getBoolean("blocklist.enabled", true)) {
+            getLogger().info("[/] Loading Blocklists...");
+            this.blocklistIndex = new BlocklistIndex();
+            getLogger().info("[/] Blocklists loading in background!");
+            getLogger().info("");
+        }
+        if (configManager.getConfig().getBoolean("ranges.enabled", true)) {
+            getLogger().info("[/] Loading IP Range Database...");
+            this.ipRangeDatabase = new IPRangeDatabase();
+            getLogger().info("[/] IP Range Database loading in background!");
+            getLogger().info("");
+        }
+        if (configManager.getConfig().getBoolean("tor.local-index", true)) {
+            getLogger().info("[/] Loading Tor Exit Index...");
+            this.torExitIndex = new TorExitIndex(httpTransport);
+            getLogger().info("[/] Tor Exit Index loading in background!");
+            getLogger().info("");
+        }
+        if (configManager.getConfig().getBoolean("reputation.enabled", true)) {
+            getLogger().info("[/] Loading Account Reputation...");
+            this.reputationStore = new ReputationStore();
+            getLogger().info("[/] Account Reputation loading in background!");
+            getLogger().info("");
+        }
+        this.ipLookupService = new IPLookupService(antiVPNCache, antiVPNManager, blocklistIndex, ipRangeDatabase, torExitIndex);
+        this.decisionPipeline = new DecisionPipeline(ipLookupService, reputationStore);
+        this.antiVPNService = new LookupAntiVPNService(ipLookupService);
+        AntiVPNProvider.register(antiVPNService);
+        this.playerScanner = new PlayerScanner(server, ipLookupService);
+        getLogger().info("[/] Starting AntiVPN Cache warm-up...");
+        this.cacheWarmupManager = new CacheWarmupManager(antiVPNCache, antiVPNManager);
+        this.cacheWarmupManager.start();
+        getLogger().info("[/] AntiVPN Cache warm-up started in background!");
         getLogger().info("");
         getLogger().info("[/] Loading Webhook integration....");
-        this.discordWebhookManager = new DiscordWebhookManager();
+        this.discordWebhookManager = new DiscordWebhookManager(httpTransport);
         getLogger().info("[/] Webhook system loaded!");
         getLogger().info("");
+        getLogger().info("[/] Loading Alert Manager...");
+        this.alertManager = new AlertManager(server, discordWebhookManager);
+        getLogger().info("[/] Alert Manager Loaded!");
+        getLogger().info("");
+        if (configManager.getConfig().getBoolean("audit.enabled", true)) {
+            getLogger().info("[/] Loading Audit Log...");
+            this.auditLogManager = new AuditLogManager();
+            getLogger().info("[/] Audit Log loaded!");
+            getLogger().info("");
+        }
         getLogger().info("[/] Registering Commands and Listeners.....");
         var lamp = VelocityLamp.builder(this, server).build();
 
@@ -105,14 +185,50 @@ public class MAntiVPN {
 
         lamp.accept(brigadier(server));
 
-        server.getEventManager().register(this, new JoinListener(alertManager));
+        this.deferredEnforcer = new DeferredEnforcer(server);
+        this.traceRecorder = new TraceRecorder(configManager.getConfig().getInt("trace.capacity", 1024));
+        this.joinListener = new JoinListener(alertManager, decisionPipeline, true);
+        server.getEventManager().register(this, joinListener);
+        this.earlyRejectListener = new EarlyRejectListener(ipLookupService);
+        server.getEventManager().register(this, earlyRejectListener);
         getLogger().info("[/] Commands and Listeners Registered!");
+        getLogger().info("");
+        getLogger().info("[/] Starting player re-evaluation...");
+        this.reevaluationSweeper = new ReevaluationSweeper(server, ipLookupService, alertManager);
+        getLogger().info("[/] Player re-evaluation started in background!");
+
+    }
 
+    public void reloadComponents() {
+        this.antiVPNCache.reload(configManager);
+        this.antiVPNManager.reload();
+        this.apiQuota.reload();
+        this.alertManager.reload();
+        this.discordWebhookManager.reload();
+        this.decisionPipeline.reload();
     }
 
     @Subscribe
     public void onProxyShutdown(ProxyShutdownEvent event) {
+        AntiVPNProvider.unregister();
         getLogger().info("[!] Shutting down AntiVPN Cache");
+        this.cacheWarmupManager.shutdown();
+        this.playerScanner.shutdown();
+        this.reevaluationSweeper.shutdown();
+        this.deferredEnforcer.shutdown();
+        if (this.blocklistIndex != null) {
+            this.blocklistIndex.shutdown();
+        }
+        if (this.ipRangeDatabase != null) {
+            this.ipRangeDatabase.shutdown();
+        }
+        if (this.torExitIndex != null) {
+            this.torExitIndex.shutdown();
+        }
+        if (this.reputationStore != null) {
+            this.reputationStore.shutdown();
+        }
+        this.apiQuota.shutdown();
         this.antiVPNCache.clearCache();
         this.antiVPNCache.shutdown();
         getLogger().info("[!] Successfully shut down AntiVPN Cache");
@@ -121,6 +237,10 @@ public class MAntiVPN {
         this.antiVPNCache.clearCache();
         this.alertManager.shutdown();
         this.discordWebhookManager.shutdown();
+        if (this.auditLogManager != null) {
+            this.auditLogManager.shutdown();
+        }
+        this.httpTransport.shutdown();
         getLogger().info("[!] Successfully shut down Alert Manager & Discord WebHook System");
         getLogger().info("Goodbye!");
     }
@@ -7,6 +7,7 @@ import it.mattiolservices.mantivpn.alert.info.AlertInfo;
 import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
 import it.mattiolservices.mantivpn.antivpn.type.CheckType;
 import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.utils.AntiVPNUtils;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import net.kyori.adventure.text.Component;
@@ -29,12 +30,13 @@ public class AlertManager {
     private final ConcurrentHashMap<String, AlertInfo> alertCache;
     private final ScheduledExecutorService cleanupExecutor;
     private final DiscordWebhookManager discordWebhookManager;
-    private final int maxCacheSize;
-    private final int expireMinutes;
+    private volatile int maxCacheSize;
+    private volatile int expireMinutes;
     private final boolean cacheEnabled;
 
-    public AlertManager(ProxyServer proxyServer) {
+    public AlertManager(ProxyServer proxyServer, DiscordWebhookManager discordWebhookManager) {
         this.proxyServer = proxyServer;
+        this.discordWebhookManager = discordWebhookManager;
 
         ConfigManager config = MAntiVPN.getConfigManager();
         this.cacheEnabled = config.getAlerts().getBoolean("alerts.cache.enabled", true);
@@ -56,8 +58,16 @@ public class AlertManager {
                 log.info("[!] Alert caching is disabled - all alerts will be sent immediately");
             }
         }
+    }
+
+    public void reload() {
+        ConfigManager config = MAntiVPN.getConfigManager();
+        this.maxCacheSize = config.getAlerts().getInt("alerts.cache.max-size", 1000);
+        this.expireMinutes = config.getAlerts().getInt("alerts.cache.expire-minutes", 5);
 
-        this.discordWebhookManager = new DiscordWebhookManager();
+        if (config.getAlerts().getBoolean("alerts.cache.enabled", true) != cacheEnabled) {
+            log.warn("[!] Enabling or disabling the alert cache requires a restart");
+        }
     }
 
     public void sendAlert(String username, String playerIP, IPCheckResult result) {
@@ -77,7 +87,7 @@ public class AlertManager {
 
         // Check cache only if caching is enabled
         if (cacheEnabled) {
-            String cacheKey = playerIP + ":" + username;
+            String cacheKey = AntiVPNUtils.cacheKey(playerIP) + ":" + username;
             AlertInfo cachedAlert = alertCache.get(cacheKey);
 
             if (cachedAlert != null && !isExpired(cachedAlert)) {
@@ -100,7 +110,7 @@ public class AlertManager {
             if (alertCache.size() >= maxCacheSize) {
                 cleanupOldestEntries();
             }
-            alertCache.put(playerIP + ":" + username, alertInfo);
+            alertCache.put(AntiVPNUtils.cacheKey(playerIP) + ":" + username, alertInfo);
         }
 
         CompletableFuture.runAsync(() -> {
@@ -301,9 +311,5 @@ public class AlertManager {
                 Thread.currentThread().interrupt();
             }
         }
-
-        if (discordWebhookManager != null) {
-            discordWebhookManager.shutdown();
-        }
     }
 }
\ No newline at end of file
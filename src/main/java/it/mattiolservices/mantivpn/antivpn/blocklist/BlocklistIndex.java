@@ -0,0 +1,231 @@
+package it.mattiolservices.mantivpn.antivpn.blocklist;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.range.RangeFlags;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.utils.AntiVPNUtils;
+import it.mattiolservices.mantivpn.utils.collection.BlockedBloomFilter;
+import it.mattiolservices.mantivpn.utils.collection.LongPairHashSet;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class BlocklistIndex {
+
+    private static final Snapshot EMPTY = new Snapshot(new BlockedBloomFilter(0, 1), new int[0], new LongPairHashSet(0));
+
+    private final Path blocklistDirectory;
+    private final Map<Path, FileStamp> loadedFiles;
+    private final ScheduledExecutorService reloadExecutor;
+    private volatile Snapshot snapshot;
+
+    public BlocklistIndex() {
+        ConfigManager config = MAntiVPN.getConfigManager();
+        this.blocklistDirectory = MAntiVPN.getInstance().getDataDirectory()
+                .resolve(config.getConfig().getString("blocklist.folder", "blocklists"));
+        this.loadedFiles = new HashMap<>();
+        this.snapshot = EMPTY;
+        this.reloadExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPN-Blocklist");
+            t.setDaemon(true);
+            return t;
+        });
+
+        long reloadMinutes = Math.max(1L, config.getConfig().getLong("blocklist.reload-minutes", 10L));
+        this.reloadExecutor.scheduleWithFixedDelay(this::reload, 0, reloadMinutes, TimeUnit.MINUTES);
+    }
+
+    // A clean IPv4 login costs one parse and one filter probe, the sorted array is only searched on a filter hit
+    public boolean isBlocked(String ip) {
+        Snapshot current = snapshot;
+
+        long v4 = AntiVPNUtils.parseIPv4(ip);
+        if (v4 >= 0) {
+            return current.bloom().mightContain(v4) && Arrays.binarySearch(current.v4(), (int) v4) >= 0;
+        }
+
+        if (current.v6().size() == 0) {
+            return false;
+        }
+
+        long[] v6 = AntiVPNUtils.parseIPv6(ip);
+        return v6 != null && current.bloom().mightContain(v6Key(v6[0], v6[1])) && current.v6().contains(v6[0], v6[1]);
+    }
+
+    public IPCheckResult lookup(String ip) {
+        if (!isBlocked(ip)) {
+            return null;
+        }
+
+        byte flags = RangeFlags.parse(MAntiVPN.getConfigManager().getConfig().getString("blocklist.flags", "proxy"));
+        return new IPCheckResult(ip,
+                RangeFlags.has(flags, RangeFlags.VPN),
+                RangeFlags.has(flags, RangeFlags.PROXY),
+                RangeFlags.has(flags, RangeFlags.TOR),
+                RangeFlags.has(flags, RangeFlags.DATACENTER),
+                RangeFlags.has(flags, RangeFlags.RESIDENTIAL),
+                0.0, "unknown", "Blocklist");
+    }
+
+    public int size() {
+        Snapshot current = snapshot;
+        return current.v4().length + current.v6().size();
+    }
+
+    public long getFilterBytes() {
+        return snapshot.bloom().sizeInBytes();
+    }
+
+    public void reloadAsync() {
+        reloadExecutor.execute(this::reload);
+    }
+
+    // Only runs on the reload executor, the next snapshot is built to the side and swapped in whole
+    private void reload() {
+        try {
+            Files.createDirectories(blocklistDirectory);
+
+            Map<Path, FileStamp> current = new HashMap<>();
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(blocklistDirectory, "*.txt")) {
+                for (Path file : files) {
+                    current.put(file, new FileStamp(Files.getLastModifiedTime(file).toMillis(), Files.size(file)));
+                }
+            }
+
+            if (current.equals(loadedFiles)) {
+                return;
+            }
+
+            Snapshot rebuilt = build(current.keySet());
+            loadedFiles.clear();
+            loadedFiles.putAll(current);
+            this.snapshot = rebuilt;
+
+            log.info("[/] Loaded {} blocked IPs from {} blocklists ({} KB filter)",
+                    rebuilt.v4().length + rebuilt.v6().size(), current.size(), rebuilt.bloom().sizeInBytes() / 1024);
+        } catch (IOException e) {
+            log.error("[!] Failed to reload blocklists: {}", e.getMessage());
+        }
+    }
+
+    private Snapshot build(Iterable<Path> files) throws IOException {
+        int[] v4 = new int[1024];
+        int v4Count = 0;
+        long[] v6 = new long[64];
+        int v6Count = 0;
+
+        for (Path file : files) {
+            int skipped = 0;
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    String entry = firstColumn(line);
+                    if (entry == null) {
+                        continue;
+                    }
+
+                    long address = AntiVPNUtils.parseIPv4(entry.endsWith("/32") ? entry.substring(0, entry.length() - 3) : entry);
+                    if (address >= 0) {
+                        if (v4Count == v4.length) {
+                            v4 = Arrays.copyOf(v4, v4.length * 2);
+                        }
+                        v4[v4Count++] = (int) address;
+                        continue;
+                    }
+
+                    long[] address6 = AntiVPNUtils.parseIPv6(entry.endsWith("/128") ? entry.substring(0, entry.length() - 4) : entry);
+                    if (address6 != null) {
+                        if (v6Count * 2 == v6.length) {
+                            v6 = Arrays.copyOf(v6, v6.length * 2);
+                        }
+                        v6[v6Count * 2] = address6[0];
+                        v6[v6Count * 2 + 1] = address6[1];
+                        v6Count++;
+                    } else {
+                        skipped++;
+                    }
+                }
+            }
+
+            if (skipped > 0) {
+                log.warn("[!] Skipped {} invalid lines in blocklist {}, CIDR blocks belong in the range lists", skipped, file.getFileName());
+            }
+        }
+
+        // Sorted and deduplicated the IPv4 entries cost four bytes each on top of the filter
+        Arrays.sort(v4, 0, v4Count);
+        int distinct = 0;
+        for (int i = 0; i < v4Count; i++) {
+            if (distinct == 0 || v4[i] != v4[distinct - 1]) {
+                v4[distinct++] = v4[i];
+            }
+        }
+        int[] sorted = Arrays.copyOf(v4, distinct);
+
+        int bitsPerEntry = MAntiVPN.getConfigManager().getConfig().getInt("blocklist.bits-per-entry", 10);
+        BlockedBloomFilter bloom = new BlockedBloomFilter((long) distinct + v6Count, bitsPerEntry);
+        for (int address : sorted) {
+            bloom.add(address & 0xFFFFFFFFL);
+        }
+
+        LongPairHashSet v6Set = new LongPairHashSet(v6Count);
+        for (int i = 0; i < v6Count; i++) {
+            if (v6Set.add(v6[i * 2], v6[i * 2 + 1])) {
+                bloom.add(v6Key(v6[i * 2], v6[i * 2 + 1]));
+            }
+        }
+
+        return new Snapshot(bloom, sorted, v6Set);
+    }
+
+    // Plain lists and provider exports alike, the address is whatever comes before the first comma or space
+    private static String firstColumn(String line) {
+        int length = line.length();
+        int start = 0;
+        while (start < length && Character.isWhitespace(line.charAt(start))) {
+            start++;
+        }
+        if (start == length || line.charAt(start) == '#') {
+            return null;
+        }
+
+        int end = start;
+        while (end < length && line.charAt(end) != ',' && line.charAt(end) != ';' && !Character.isWhitespace(line.charAt(end))) {
+            end++;
+        }
+        return end == start ? null : line.substring(start, end);
+    }
+
+    private static long v6Key(long high, long low) {
+        return high * 0x9E3779B97F4A7C15L + low;
+    }
+
+    public void shutdown() {
+        reloadExecutor.shutdown();
+        try {
+            if (!reloadExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                reloadExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            reloadExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private record FileStamp(long lastModified, long size) {}
+
+    private record Snapshot(BlockedBloomFilter bloom, int[] v4, LongPairHashSet v6) {}
+}
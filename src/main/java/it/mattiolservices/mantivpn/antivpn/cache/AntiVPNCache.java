@@ -2,47 +2,306 @@ package it.mattiolservices.mantivpn.antivpn.cache;
 
 import com.github.benmanes.caffeine.cache.Cache;
 import com.github.benmanes.caffeine.cache.Caffeine;
+import com.github.benmanes.caffeine.cache.Expiry;
+import com.github.benmanes.caffeine.cache.Weigher;
+import it.mattiolservices.mantivpn.antivpn.cache.shared.SharedCacheTier;
 import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
 import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.utils.AntiVPNUtils;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
 
 import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
 
+@Slf4j
 public class AntiVPNCache {
 
+    // Caffeine node, map node and the IPCheckResult record itself
+    private static final int ENTRY_OVERHEAD_BYTES = 160;
+
     private final Cache<String, IPCheckResult> ipCache;
+    // Recent suspicious verdicts, only used to turn known-bad IPs away before the pipeline runs
+    private final Cache<String, IPCheckResult> blockedCache;
+    private final HeapPressureMonitor heapPressureMonitor;
+    private final SharedCacheTier sharedTier;
+    // Settings the heap pressure monitor was started with, null for a detached cache
+    private final HeapPressureSettings heapPressureSettings;
+    private volatile long ttlMillis;
+
+    @Getter
+    private final boolean memoryBudgeted;
+    @Getter
+    private volatile long configuredMaximum;
+    @Getter
+    private volatile long currentMaximum;
 
     public AntiVPNCache(ConfigManager configManager) {
-        this.ipCache = Caffeine.newBuilder()
-                .maximumSize(configManager.getConfig().getInt("antivpn.cachesize"))
-                .expireAfterWrite(Duration.ofHours(configManager.getConfig().getInt("antivpn.cachetime")))
+        this(configManager, true);
+    }
+
+    // A detached cache has no heap pressure monitor and never touches the shared tier
+    public AntiVPNCache(ConfigManager configManager, boolean attached) {
+        long memoryBudgetMb = configManager.getConfig().getLong("antivpn.cache-memory-mb", 0L);
+        this.ttlMillis = TimeUnit.HOURS.toMillis(configManager.getConfig().getInt("antivpn.cachetime"));
+        Caffeine<String, IPCheckResult> builder = Caffeine.newBuilder().expireAfter(new VerdictExpiry());
+
+        if (memoryBudgetMb > 0) {
+            this.memoryBudgeted = true;
+            this.configuredMaximum = memoryBudgetMb * 1024L * 1024L;
+            this.ipCache = builder
+                    .maximumWeight(configuredMaximum)
+                    .weigher((Weigher<String, IPCheckResult>) AntiVPNCache::estimateFootprint)
+                    .build();
+        } else {
+            this.memoryBudgeted = false;
+            this.configuredMaximum = configManager.getConfig().getInt("antivpn.cachesize");
+            this.ipCache = builder
+                    .maximumSize(configuredMaximum)
+                    .build();
+        }
+        this.currentMaximum = configuredMaximum;
+
+        this.blockedCache = Caffeine.newBuilder()
+                .expireAfterWrite(Duration.ofMinutes(configManager.getConfig().getLong("early-reject.negative-cache-minutes", 10L)))
+                .maximumSize(configManager.getConfig().getLong("early-reject.negative-cache-size", 50000L))
                 .build();
+
+        this.heapPressureSettings = attached ? HeapPressureSettings.read(configManager) : null;
+        if (attached && heapPressureSettings.enabled()) {
+            this.heapPressureMonitor = new HeapPressureMonitor(this,
+                    heapPressureSettings.shrinkThreshold(), heapPressureSettings.restoreThreshold());
+            this.heapPressureMonitor.start();
+        } else {
+            this.heapPressureMonitor = null;
+        }
+
+        this.sharedTier = attached ? SharedCacheTier.create(configManager, ipCache::invalidate) : null;
+    }
+
+    // Detached and bounded by entry count, tests build it without a config
+    AntiVPNCache(long ttlMillis, long maximumSize) {
+        this.ttlMillis = ttlMillis;
+        this.ipCache = Caffeine.newBuilder().expireAfter(new VerdictExpiry()).maximumSize(maximumSize).build();
+        this.blockedCache = Caffeine.newBuilder().expireAfterWrite(Duration.ofMinutes(10L)).maximumSize(maximumSize).build();
+        this.heapPressureMonitor = null;
+        this.sharedTier = null;
+        this.heapPressureSettings = null;
+        this.memoryBudgeted = false;
+        this.configuredMaximum = maximumSize;
+        this.currentMaximum = maximumSize;
     }
 
     public IPCheckResult getCachedResult(String ip) {
-        return ipCache.getIfPresent(ip);
+        return ipCache.getIfPresent(AntiVPNUtils.cacheKey(ip));
+    }
+
+    public IPCheckResult getSharedResult(String ip) {
+        if (sharedTier == null) {
+            return null;
+        }
+
+        String key = AntiVPNUtils.cacheKey(ip);
+        IPCheckResult result = sharedTier.get(key);
+        if (result != null) {
+            ipCache.put(key, result);
+        }
+        return result;
+    }
+
+    public boolean isSharedTierEnabled() {
+        return sharedTier != null;
     }
 
     public void cacheResult(String ip, IPCheckResult result) {
-        ipCache.put(ip, result);
+        String key = AntiVPNUtils.cacheKey(ip);
+        ipCache.put(key, result);
+        blockedCache.invalidate(key);
+        if (sharedTier != null) {
+            sharedTier.put(key, result);
+        }
+    }
+
+    public void cacheBlocked(String ip, IPCheckResult result) {
+        blockedCache.put(AntiVPNUtils.cacheKey(ip), result);
+    }
+
+    public IPCheckResult getBlockedResult(String ip) {
+        return blockedCache.getIfPresent(AntiVPNUtils.cacheKey(ip));
+    }
+
+    // Puts an entry under its cache key as is, the shared tier is left alone
+    // Returns false when the verdict has already outlived the cache time
+    public boolean restore(String key, IPCheckResult result) {
+        if (remainingNanos(result) <= 0) {
+            return false;
+        }
+        ipCache.put(key, result);
+        return true;
+    }
+
+    public void forEachEntry(BiConsumer<String, IPCheckResult> action) {
+        ipCache.asMap().forEach(action);
     }
 
     public boolean isCached(String ip) {
-        return ipCache.getIfPresent(ip) != null;
+        return ipCache.getIfPresent(AntiVPNUtils.cacheKey(ip)) != null;
     }
 
     public void invalidateCache(String ip) {
-        ipCache.invalidate(ip);
+        String key = AntiVPNUtils.cacheKey(ip);
+        ipCache.invalidate(key);
+        blockedCache.invalidate(key);
+        if (sharedTier != null) {
+            sharedTier.invalidate(key);
+        }
     }
 
     public void clearCache() {
         ipCache.invalidateAll();
+        blockedCache.invalidateAll();
     }
 
     public long getCacheSize() {
         return ipCache.estimatedSize();
     }
 
+    public long getWeightedSize() {
+        return ipCache.policy().eviction()
+                .map(eviction -> eviction.weightedSize().orElse(ipCache.estimatedSize()))
+                .orElse(ipCache.estimatedSize());
+    }
+
+    synchronized void shrink(double factor, double minimumRatio) {
+        long floor = Math.max(1L, (long) (configuredMaximum * minimumRatio));
+        long target = Math.max(floor, (long) (currentMaximum * factor));
+        if (target >= currentMaximum) {
+            return;
+        }
+
+        applyMaximum(target);
+        log.warn("[!] Heap pressure detected, IP cache limit reduced to {} {}", target, memoryBudgeted ? "bytes" : "entries");
+    }
+
+    synchronized void grow(double factor) {
+        if (currentMaximum >= configuredMaximum) {
+            return;
+        }
+
+        long target = Math.min(configuredMaximum, (long) Math.ceil(currentMaximum * factor));
+        applyMaximum(target);
+        log.info("[!] Heap pressure relieved, IP cache limit restored to {} {}", target, memoryBudgeted ? "bytes" : "entries");
+    }
+
+    private void applyMaximum(long maximum) {
+        ipCache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(maximum));
+        this.currentMaximum = maximum;
+    }
+
+    // Applies size and TTL changes in place, entries already cached stay warm and expire by the new cache time
+    // The heap pressure settings are only read when the monitor starts
+    public synchronized void reload(ConfigManager configManager) {
+        applyTtl(TimeUnit.HOURS.toMillis(configManager.getConfig().getInt("antivpn.cachetime")));
+        blockedCache.policy().expireAfterWrite().ifPresent(expiration -> expiration.setExpiresAfter(
+                Duration.ofMinutes(configManager.getConfig().getLong("early-reject.negative-cache-minutes", 10L))));
+        blockedCache.policy().eviction().ifPresent(eviction -> eviction.setMaximum(
+                configManager.getConfig().getLong("early-reject.negative-cache-size", 50000L)));
+
+        if (heapPressureSettings != null && !heapPressureSettings.equals(HeapPressureSettings.read(configManager))) {
+            log.warn("[!] Changes to antivpn.heap-pressure require a restart");
+        }
+
+        long memoryBudgetMb = configManager.getConfig().getLong("antivpn.cache-memory-mb", 0L);
+        if ((memoryBudgetMb > 0) != memoryBudgeted) {
+            log.warn("[!] Switching between antivpn.cachesize and antivpn.cache-memory-mb requires a restart");
+            return;
+        }
+
+        long maximum = memoryBudgeted
+                ? memoryBudgetMb * 1024L * 1024L
+                : configManager.getConfig().getInt("antivpn.cachesize");
+        if (maximum == configuredMaximum) {
+            return;
+        }
+
+        // A limit reduced by heap pressure stays reduced, grow() brings it up to the new maximum later
+        boolean reduced = currentMaximum < configuredMaximum;
+        this.configuredMaximum = maximum;
+        applyMaximum(reduced ? Math.min(maximum, currentMaximum) : maximum);
+        log.info("[!] IP cache limit changed to {} {}", maximum, memoryBudgeted ? "bytes" : "entries");
+    }
+
+    // Expiry only runs on writes, so live entries are re-timed against the new cache time here
+    synchronized void applyTtl(long ttlMillis) {
+        if (ttlMillis == this.ttlMillis) {
+            return;
+        }
+
+        this.ttlMillis = ttlMillis;
+        ipCache.policy().expireVariably().ifPresent(expiry -> ipCache.asMap().forEach((key, result) ->
+                expiry.setExpiresAfter(key, remainingNanos(result), TimeUnit.NANOSECONDS)));
+    }
+
+    private long remainingNanos(IPCheckResult result) {
+        long ageMillis = Math.max(0L, System.currentTimeMillis() - result.timestamp());
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(0L, ttlMillis - ageMillis));
+    }
+
+    // The cache time counts from when a verdict was made, so shared and imported verdicts
+    // expire when they would have on the proxy that looked them up
+    private final class VerdictExpiry implements Expiry<String, IPCheckResult> {
+
+        @Override
+        public long expireAfterCreate(String key, IPCheckResult result, long currentTime) {
+            return remainingNanos(result);
+        }
+
+        @Override
+        public long expireAfterUpdate(String key, IPCheckResult result, long currentTime, long currentDuration) {
+            return remainingNanos(result);
+        }
+
+        @Override
+        public long expireAfterRead(String key, IPCheckResult result, long currentTime, long currentDuration) {
+            return currentDuration;
+        }
+    }
+
+    private record HeapPressureSettings(boolean enabled, double shrinkThreshold, double restoreThreshold) {
+
+        private static HeapPressureSettings read(ConfigManager configManager) {
+            return new HeapPressureSettings(
+                    configManager.getConfig().getBoolean("antivpn.heap-pressure.enabled", true),
+                    configManager.getConfig().getDouble("antivpn.heap-pressure.shrink-threshold", 0.85),
+                    configManager.getConfig().getDouble("antivpn.heap-pressure.restore-threshold", 0.70));
+        }
+    }
+
+    static int estimateFootprint(String ip, IPCheckResult result) {
+        return ENTRY_OVERHEAD_BYTES
+                + stringFootprint(ip)
+                + stringFootprint(result.ip())
+                + stringFootprint(result.country())
+                + stringFootprint(result.provider());
+    }
+
+    private static int stringFootprint(String value) {
+        if (value == null) {
+            return 0;
+        }
+        // String header + compact byte[] header, rounded to the 8 byte object alignment
+        return (40 + value.length() + 7) & ~7;
+    }
+
     public void shutdown() {
+        if (heapPressureMonitor != null) {
+            heapPressureMonitor.shutdown();
+        }
+        if (sharedTier != null) {
+            sharedTier.shutdown();
+        }
         ipCache.invalidateAll();
+        blockedCache.invalidateAll();
     }
-}
\ No newline at end of file
+}
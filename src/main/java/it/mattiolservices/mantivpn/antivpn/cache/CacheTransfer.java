@@ -0,0 +1,289 @@
+package it.mattiolservices.mantivpn.antivpn.cache;
+
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32C;
+
+// Binary copy of the verdict cache so a new proxy can start warm from a sibling
+// Layout: header, one tagged record per entry, then an end tag with the entry count and
+// a CRC32C over every byte before it. Verdicts keep their timestamps, so they expire on time
+public final class CacheTransfer {
+
+    private static final int MAGIC = 0x4D435846;
+    private static final int VERSION = 1;
+    private static final byte TAG_ENTRY = 1;
+    private static final byte TAG_END = 0;
+    private static final int NULL_STRING = 0xFFFF;
+    private static final int MAX_STRING_BYTES = 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final int VPN = 1;
+    private static final int PROXY = 1 << 1;
+    private static final int TOR = 1 << 2;
+    private static final int DATACENTER = 1 << 3;
+    private static final int RESIDENTIAL = 1 << 4;
+
+    private CacheTransfer() {
+    }
+
+    // Written to a temporary file first, an interrupted export never leaves a half written file behind
+    public static int export(AntiVPNCache cache, Path file) throws IOException {
+        if (file.getParent() != null) {
+            Files.createDirectories(file.getParent());
+        }
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        int count;
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ChannelWriter writer = new ChannelWriter(channel);
+            writer.require(16);
+            writer.buffer.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis());
+
+            int[] written = new int[1];
+            try {
+                cache.forEachEntry((key, result) -> {
+                    try {
+                        if (writeEntry(writer, key, result)) {
+                            written[0]++;
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+
+            count = written[0];
+            writer.require(5);
+            writer.buffer.put(TAG_END).putInt(count);
+            writer.finish();
+            channel.force(true);
+        }
+
+        Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        return count;
+    }
+
+    // The whole file is read and verified before the first entry reaches the cache
+    public static ImportResult importInto(AntiVPNCache cache, Path file) throws IOException {
+        List<String> keys = new ArrayList<>();
+        List<IPCheckResult> results = new ArrayList<>();
+
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            ChannelReader reader = new ChannelReader(channel);
+            reader.require(16);
+            if (reader.buffer.getInt() != MAGIC) {
+                throw new IOException("Not a cache export");
+            }
+            int version = reader.buffer.getInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported cache export version " + version);
+            }
+            reader.buffer.getLong();
+
+            while (true) {
+                reader.require(1);
+                byte tag = reader.buffer.get();
+                if (tag == TAG_END) {
+                    break;
+                }
+                if (tag != TAG_ENTRY) {
+                    throw new IOException("Corrupt cache export, unknown record tag " + tag);
+                }
+
+                keys.add(readString(reader));
+                String ip = readString(reader);
+                reader.require(1 + 8);
+                int flags = reader.buffer.get();
+                double threatScore = reader.buffer.getDouble();
+                String country = readString(reader);
+                String provider = readString(reader);
+                reader.require(8);
+                long timestamp = reader.buffer.getLong();
+
+                results.add(new IPCheckResult(ip,
+                        (flags & VPN) != 0,
+                        (flags & PROXY) != 0,
+                        (flags & TOR) != 0,
+                        (flags & DATACENTER) != 0,
+                        (flags & RESIDENTIAL) != 0,
+                        threatScore, country, provider, timestamp));
+            }
+
+            reader.require(4);
+            int count = reader.buffer.getInt();
+            long expected = reader.checksum();
+            reader.require(8);
+            if (reader.buffer.getLong() != expected) {
+                throw new IOException("Cache export checksum mismatch");
+            }
+            if (count != results.size()) {
+                throw new IOException("Cache export holds " + results.size() + " entries, expected " + count);
+            }
+        }
+
+        int imported = 0;
+        for (int i = 0; i < results.size(); i++) {
+            if (cache.restore(keys.get(i), results.get(i))) {
+                imported++;
+            }
+        }
+        return new ImportResult(imported, results.size() - imported);
+    }
+
+    private static boolean writeEntry(ChannelWriter writer, String key, IPCheckResult result) throws IOException {
+        byte[] keyBytes = encode(key);
+        byte[] ipBytes = encode(result.ip());
+        byte[] countryBytes = encode(result.country());
+        byte[] providerBytes = encode(result.provider());
+        if (tooLong(keyBytes) || tooLong(ipBytes) || tooLong(countryBytes) || tooLong(providerBytes)) {
+            return false;
+        }
+
+        int flags = (result.vpn() ? VPN : 0)
+                | (result.proxy() ? PROXY : 0)
+                | (result.tor() ? TOR : 0)
+                | (result.datacenter() ? DATACENTER : 0)
+                | (result.residential() ? RESIDENTIAL : 0);
+
+        writer.require(1 + 4 * 2 + length(keyBytes) + length(ipBytes) + length(countryBytes) + length(providerBytes) + 1 + 8 + 8);
+        writer.buffer.put(TAG_ENTRY);
+        putString(writer.buffer, keyBytes);
+        putString(writer.buffer, ipBytes);
+        writer.buffer.put((byte) flags).putDouble(result.threatScore());
+        putString(writer.buffer, countryBytes);
+        putString(writer.buffer, providerBytes);
+        writer.buffer.putLong(result.timestamp());
+        return true;
+    }
+
+    private static byte[] encode(String value) {
+        return value == null ? null : value.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static boolean tooLong(byte[] bytes) {
+        return bytes != null && bytes.length > MAX_STRING_BYTES;
+    }
+
+    private static int length(byte[] bytes) {
+        return bytes == null ? 0 : bytes.length;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        if (bytes == null) {
+            buffer.putShort((short) NULL_STRING);
+            return;
+        }
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private static String readString(ChannelReader reader) throws IOException {
+        reader.require(2);
+        int length = reader.buffer.getShort() & 0xFFFF;
+        if (length == NULL_STRING) {
+            return null;
+        }
+        if (length > MAX_STRING_BYTES) {
+            throw new IOException("Corrupt cache export, string of " + length + " bytes");
+        }
+
+        reader.require(length);
+        byte[] bytes = new byte[length];
+        reader.buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    public record ImportResult(int imported, int expired) {}
+
+    private static final class ChannelWriter {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final CRC32C crc = new CRC32C();
+
+        private ChannelWriter(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.duplicate());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        // The checksum covers everything written so far and is the last field of the file
+        private void finish() throws IOException {
+            flush();
+            buffer.putLong(crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    private static final class ChannelReader {
+
+        private final FileChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE).flip();
+        private final CRC32C crc = new CRC32C();
+        private int checksummedUpTo;
+
+        private ChannelReader(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) {
+                return;
+            }
+
+            addConsumedToChecksum();
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new EOFException("Truncated cache export");
+                }
+            }
+            buffer.flip();
+            checksummedUpTo = 0;
+        }
+
+        // Checksum of every byte consumed so far
+        private long checksum() {
+            addConsumedToChecksum();
+            return crc.getValue();
+        }
+
+        private void addConsumedToChecksum() {
+            ByteBuffer consumed = buffer.duplicate();
+            consumed.limit(buffer.position()).position(checksummedUpTo);
+            crc.update(consumed);
+            checksummedUpTo = buffer.position();
+        }
+    }
+}
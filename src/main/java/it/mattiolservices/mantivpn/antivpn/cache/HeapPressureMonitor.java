@@ -0,0 +1,151 @@
+package it.mattiolservices.mantivpn.antivpn.cache;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import lombok.extern.slf4j.Slf4j;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.lang.management.MemoryNotificationInfo;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class HeapPressureMonitor implements NotificationListener {
+
+    private static final double SHRINK_FACTOR = 0.5;
+    private static final double GROW_FACTOR = 1.25;
+
+    private final AntiVPNCache cache;
+    private final double shrinkThreshold;
+    private final double restoreThreshold;
+    private final MemoryMXBean memoryBean;
+    private final ScheduledExecutorService checkExecutor;
+    // Threshold this monitor reacts to, per heap pool
+    private final Map<String, Long> thresholds = new ConcurrentHashMap<>();
+    // Thresholds are JVM-wide, whatever was there before is put back on shutdown
+    private final Map<String, Long> replacedThresholds = new ConcurrentHashMap<>();
+
+    public HeapPressureMonitor(AntiVPNCache cache, double shrinkThreshold, double restoreThreshold) {
+        this.cache = cache;
+        this.shrinkThreshold = shrinkThreshold;
+        this.restoreThreshold = Math.min(restoreThreshold, shrinkThreshold);
+        this.memoryBean = ManagementFactory.getMemoryMXBean();
+        this.checkExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPNCache-HeapPressure");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public void start() {
+        for (MemoryPoolMXBean pool : collectedHeapPools()) {
+            long max = pool.getUsage().getMax();
+            if (max <= 0) {
+                continue;
+            }
+
+            long threshold = (long) (max * shrinkThreshold);
+            thresholds.put(pool.getName(), threshold);
+
+            // A lower threshold set by someone else already notifies early enough, it is left alone
+            long previous = pool.getCollectionUsageThreshold();
+            if (previous == 0 || previous > threshold) {
+                pool.setCollectionUsageThreshold(threshold);
+                replacedThresholds.put(pool.getName(), previous);
+            }
+        }
+
+        ((NotificationEmitter) memoryBean).addNotificationListener(this, null, null);
+
+        // Threshold notifications only fire when crossing upwards, the periodic check handles recovery
+        checkExecutor.scheduleAtFixedRate(this::checkHeapUsage, 30, 30, TimeUnit.SECONDS);
+    }
+
+    // Only reacts to pools this monitor watches, with the usage left after the collection that fired
+    @Override
+    public void handleNotification(Notification notification, Object handback) {
+        if (!MemoryNotificationInfo.MEMORY_COLLECTION_THRESHOLD_EXCEEDED.equals(notification.getType())
+                || !(notification.getUserData() instanceof CompositeData data)) {
+            return;
+        }
+
+        MemoryNotificationInfo info = MemoryNotificationInfo.from(data);
+        Long threshold = thresholds.get(info.getPoolName());
+        if (threshold != null && info.getUsage().getUsed() >= threshold) {
+            checkExecutor.execute(() -> cache.shrink(SHRINK_FACTOR, minimumRatio()));
+        }
+    }
+
+    // Usage right after the last collection, live data only, the fullest watched pool decides
+    private void checkHeapUsage() {
+        try {
+            double usage = -1.0;
+            for (MemoryPoolMXBean pool : collectedHeapPools()) {
+                MemoryUsage collected = pool.getCollectionUsage();
+                if (collected == null || collected.getMax() <= 0 || !thresholds.containsKey(pool.getName())) {
+                    continue;
+                }
+                usage = Math.max(usage, (double) collected.getUsed() / collected.getMax());
+            }
+            if (usage < 0) {
+                return;
+            }
+
+            if (usage >= shrinkThreshold) {
+                cache.shrink(SHRINK_FACTOR, minimumRatio());
+            } else if (usage <= restoreThreshold) {
+                cache.grow(GROW_FACTOR);
+            }
+        } catch (Exception e) {
+            log.error("[!] Error during heap pressure check: {}", e.getMessage());
+        }
+    }
+
+    private static List<MemoryPoolMXBean> collectedHeapPools() {
+        return ManagementFactory.getMemoryPoolMXBeans().stream()
+                .filter(pool -> pool.getType() == MemoryType.HEAP && pool.isCollectionUsageThresholdSupported())
+                .toList();
+    }
+
+    private double minimumRatio() {
+        return MAntiVPN.getConfigManager().getConfig().getDouble("antivpn.heap-pressure.minimum-ratio", 0.25);
+    }
+
+    public void shutdown() {
+        try {
+            ((NotificationEmitter) memoryBean).removeNotificationListener(this);
+        } catch (ListenerNotFoundException ignored) {
+        }
+
+        // Put back what was replaced, unless someone changed the threshold again since
+        for (MemoryPoolMXBean pool : collectedHeapPools()) {
+            Long previous = replacedThresholds.remove(pool.getName());
+            if (previous != null && pool.getCollectionUsageThreshold() == thresholds.get(pool.getName())) {
+                pool.setCollectionUsageThreshold(previous);
+            }
+        }
+        thresholds.clear();
+
+        checkExecutor.shutdown();
+        try {
+            if (!checkExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                checkExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            checkExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
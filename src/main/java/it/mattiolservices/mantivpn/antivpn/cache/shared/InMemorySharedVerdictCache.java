@@ -0,0 +1,63 @@
+package it.mattiolservices.mantivpn.antivpn.cache.shared;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+// In-process stand-in for a network tier, every instance in the same JVM shares one store
+public class InMemorySharedVerdictCache implements SharedVerdictCache {
+
+    private static final Map<String, Entry> STORE = new ConcurrentHashMap<>();
+    private static final List<InMemorySharedVerdictCache> NODES = new CopyOnWriteArrayList<>();
+
+    private final List<Consumer<String>> listeners = new CopyOnWriteArrayList<>();
+
+    public InMemorySharedVerdictCache() {
+        NODES.add(this);
+    }
+
+    @Override
+    public String get(String ip) {
+        Entry entry = STORE.get(ip);
+        if (entry == null) {
+            return null;
+        }
+
+        if (entry.expiresAt() < System.currentTimeMillis()) {
+            STORE.remove(ip, entry);
+            return null;
+        }
+        return entry.value();
+    }
+
+    @Override
+    public void putAll(Map<String, String> entries, long ttlMillis) {
+        long expiresAt = System.currentTimeMillis() + ttlMillis;
+        entries.forEach((ip, value) -> STORE.put(ip, new Entry(value, expiresAt)));
+    }
+
+    @Override
+    public void invalidate(String ip) {
+        STORE.remove(ip);
+        for (InMemorySharedVerdictCache node : NODES) {
+            if (node != this) {
+                node.listeners.forEach(listener -> listener.accept(ip));
+            }
+        }
+    }
+
+    @Override
+    public void subscribeInvalidations(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    @Override
+    public void close() {
+        NODES.remove(this);
+        listeners.clear();
+    }
+
+    private record Entry(String value, long expiresAt) {}
+}
@@ -0,0 +1,146 @@
+package it.mattiolservices.mantivpn.antivpn.cache.shared;
+
+import lombok.extern.slf4j.Slf4j;
+import redis.clients.jedis.DefaultJedisClientConfig;
+import redis.clients.jedis.HostAndPort;
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.JedisPubSub;
+import redis.clients.jedis.Pipeline;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+@Slf4j
+public class RedisSharedVerdictCache implements SharedVerdictCache {
+
+    private final JedisPool jedisPool;
+    private final String keyPrefix;
+    private final String channel;
+    private final String nodeId;
+    private final List<Consumer<String>> listeners;
+    private final JedisPubSub subscriber;
+    private final Thread subscriberThread;
+    private volatile boolean running;
+
+    // Reads run on the login path, so connecting, every socket read and waiting for a free
+    // connection are all bounded by timeoutMs. Fails when the server doesn't answer a PING
+    public RedisSharedVerdictCache(String host, int port, String password, int database, int timeoutMs,
+                                   String keyPrefix, String channel) {
+        if (timeoutMs <= 0) {
+            // Jedis reads a zero timeout as no timeout at all
+            throw new IllegalArgumentException("shared-cache.redis.timeout-ms must be positive");
+        }
+
+        JedisPoolConfig poolConfig = new JedisPoolConfig();
+        poolConfig.setMaxTotal(16);
+        poolConfig.setMaxIdle(8);
+        poolConfig.setMinIdle(1);
+        poolConfig.setMaxWait(Duration.ofMillis(timeoutMs));
+
+        this.jedisPool = new JedisPool(poolConfig, new HostAndPort(host, port), DefaultJedisClientConfig.builder()
+                .connectionTimeoutMillis(timeoutMs)
+                .socketTimeoutMillis(timeoutMs)
+                .password(password == null || password.isEmpty() ? null : password)
+                .database(database)
+                .build());
+
+        // The pool only connects on first use, without this an unreachable server would be paid for on every login
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.ping();
+        } catch (RuntimeException e) {
+            jedisPool.close();
+            throw e;
+        }
+
+        this.keyPrefix = keyPrefix;
+        this.channel = channel;
+        this.nodeId = UUID.randomUUID().toString();
+        this.listeners = new CopyOnWriteArrayList<>();
+        this.running = true;
+
+        this.subscriber = new JedisPubSub() {
+            @Override
+            public void onMessage(String channel, String message) {
+                int separator = message.indexOf(' ');
+                if (separator < 0 || message.startsWith(nodeId)) {
+                    return;
+                }
+
+                String ip = message.substring(separator + 1);
+                listeners.forEach(listener -> listener.accept(ip));
+            }
+        };
+
+        this.subscriberThread = new Thread(this::runSubscriber, "AntiVPN-SharedCache-Subscriber");
+        this.subscriberThread.setDaemon(true);
+        this.subscriberThread.start();
+    }
+
+    @Override
+    public String get(String ip) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            return jedis.get(keyPrefix + ip);
+        }
+    }
+
+    @Override
+    public void putAll(Map<String, String> entries, long ttlMillis) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            Pipeline pipeline = jedis.pipelined();
+            entries.forEach((ip, value) -> pipeline.psetex(keyPrefix + ip, ttlMillis, value));
+            pipeline.sync();
+        }
+    }
+
+    @Override
+    public void invalidate(String ip) {
+        try (Jedis jedis = jedisPool.getResource()) {
+            jedis.del(keyPrefix + ip);
+            jedis.publish(channel, nodeId + " " + ip);
+        }
+    }
+
+    @Override
+    public void subscribeInvalidations(Consumer<String> listener) {
+        listeners.add(listener);
+    }
+
+    private void runSubscriber() {
+        while (running) {
+            try (Jedis jedis = jedisPool.getResource()) {
+                jedis.subscribe(subscriber, channel);
+            } catch (Exception e) {
+                if (!running) {
+                    return;
+                }
+
+                log.warn("[!] Shared cache subscription lost, retrying in 5 seconds: {}", e.getMessage());
+                try {
+                    Thread.sleep(5000L);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        running = false;
+        try {
+            if (subscriber.isSubscribed()) {
+                subscriber.unsubscribe();
+            }
+        } catch (Exception ignored) {
+        }
+        subscriberThread.interrupt();
+        jedisPool.close();
+    }
+}
@@ -0,0 +1,166 @@
+package it.mattiolservices.mantivpn.antivpn.cache.shared;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+@Slf4j
+public class SharedCacheTier {
+
+    private final SharedVerdictCache sharedCache;
+    // Read on every flush, so a reloaded antivpn.cachetime applies to the next write
+    private final LongSupplier ttlMillis;
+    private final Gson gson;
+    private final ConcurrentHashMap<String, IPCheckResult> pendingWrites;
+    private final ScheduledExecutorService writeBehindExecutor;
+
+    SharedCacheTier(SharedVerdictCache sharedCache, LongSupplier ttlMillis, long writeBehindMs) {
+        this.sharedCache = sharedCache;
+        this.ttlMillis = ttlMillis;
+        this.gson = new Gson();
+        this.pendingWrites = new ConcurrentHashMap<>();
+        this.writeBehindExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPN-SharedCache-WriteBehind");
+            t.setDaemon(true);
+            return t;
+        });
+        this.writeBehindExecutor.scheduleWithFixedDelay(this::flush, writeBehindMs, writeBehindMs, TimeUnit.MILLISECONDS);
+    }
+
+    public static SharedCacheTier create(ConfigManager configManager, Consumer<String> invalidationListener) {
+        if (!configManager.getConfig().getBoolean("shared-cache.enabled", false)) {
+            return null;
+        }
+
+        String type = configManager.getConfig().getString("shared-cache.type", "redis");
+        SharedVerdictCache sharedCache;
+        try {
+            if ("memory".equalsIgnoreCase(type)) {
+                sharedCache = new InMemorySharedVerdictCache();
+            } else {
+                sharedCache = new RedisSharedVerdictCache(
+                        configManager.getConfig().getString("shared-cache.redis.host", "localhost"),
+                        configManager.getConfig().getInt("shared-cache.redis.port", 6379),
+                        configManager.getConfig().getString("shared-cache.redis.password", ""),
+                        configManager.getConfig().getInt("shared-cache.redis.database", 0),
+                        configManager.getConfig().getInt("shared-cache.redis.timeout-ms", 200),
+                        configManager.getConfig().getString("shared-cache.key-prefix", "mantivpn:verdict:"),
+                        configManager.getConfig().getString("shared-cache.channel", "mantivpn:invalidate"));
+            }
+        } catch (Exception e) {
+            log.error("[!] Failed to connect to the shared cache, continuing with the local cache only: {}", e.getMessage());
+            return null;
+        }
+
+        sharedCache.subscribeInvalidations(invalidationListener);
+
+        LongSupplier ttlMillis = () -> TimeUnit.HOURS.toMillis(configManager.getConfig().getInt("antivpn.cachetime"));
+        long writeBehindMs = Math.max(10L, configManager.getConfig().getLong("shared-cache.write-behind-ms", 250L));
+        return new SharedCacheTier(sharedCache, ttlMillis, writeBehindMs);
+    }
+
+    public IPCheckResult get(String ip) {
+        IPCheckResult pending = pendingWrites.get(ip);
+        if (pending != null) {
+            return pending;
+        }
+
+        try {
+            String value = sharedCache.get(ip);
+            return value == null ? null : deserialize(ip, value);
+        } catch (Exception e) {
+            log.warn("[!] Shared cache read failed for IP {}: {}", ip, e.getMessage());
+            return null;
+        }
+    }
+
+    public void put(String ip, IPCheckResult result) {
+        pendingWrites.put(ip, result);
+    }
+
+    public void invalidate(String ip) {
+        pendingWrites.remove(ip);
+        writeBehindExecutor.execute(() -> {
+            try {
+                sharedCache.invalidate(ip);
+            } catch (Exception e) {
+                log.warn("[!] Shared cache invalidation failed for IP {}: {}", ip, e.getMessage());
+            }
+        });
+    }
+
+    private void flush() {
+        if (pendingWrites.isEmpty()) {
+            return;
+        }
+
+        Map<String, String> batch = new HashMap<>();
+        for (Map.Entry<String, IPCheckResult> entry : pendingWrites.entrySet()) {
+            if (pendingWrites.remove(entry.getKey(), entry.getValue())) {
+                batch.put(entry.getKey(), serialize(entry.getValue()));
+            }
+        }
+
+        try {
+            sharedCache.putAll(batch, ttlMillis.getAsLong());
+        } catch (Exception e) {
+            log.warn("[!] Shared cache write of {} entries failed: {}", batch.size(), e.getMessage());
+        }
+    }
+
+    private String serialize(IPCheckResult result) {
+        JsonObject json = new JsonObject();
+        json.addProperty("ip", result.ip());
+        json.addProperty("vpn", result.vpn());
+        json.addProperty("proxy", result.proxy());
+        json.addProperty("tor", result.tor());
+        json.addProperty("datacenter", result.datacenter());
+        json.addProperty("residential", result.residential());
+        json.addProperty("threat_score", result.threatScore());
+        json.addProperty("country", result.country());
+        json.addProperty("provider", result.provider());
+        json.addProperty("timestamp", result.timestamp());
+        return json.toString();
+    }
+
+    private IPCheckResult deserialize(String ip, String value) {
+        JsonObject json = gson.fromJson(value, JsonObject.class);
+        return new IPCheckResult(
+                json.has("ip") ? json.get("ip").getAsString() : ip,
+                json.get("vpn").getAsBoolean(),
+                json.get("proxy").getAsBoolean(),
+                json.get("tor").getAsBoolean(),
+                json.get("datacenter").getAsBoolean(),
+                json.get("residential").getAsBoolean(),
+                json.get("threat_score").getAsDouble(),
+                json.get("country").getAsString(),
+                json.get("provider").getAsString(),
+                json.get("timestamp").getAsLong());
+    }
+
+    public void shutdown() {
+        writeBehindExecutor.shutdown();
+        try {
+            if (!writeBehindExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                writeBehindExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            writeBehindExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        flush();
+        sharedCache.close();
+    }
+}
@@ -0,0 +1,17 @@
+package it.mattiolservices.mantivpn.antivpn.cache.shared;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+public interface SharedVerdictCache {
+
+    String get(String ip) throws Exception;
+
+    void putAll(Map<String, String> entries, long ttlMillis) throws Exception;
+
+    void invalidate(String ip) throws Exception;
+
+    void subscribeInvalidations(Consumer<String> listener);
+
+    void close();
+}
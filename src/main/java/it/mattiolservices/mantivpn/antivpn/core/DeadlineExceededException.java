@@ -0,0 +1,11 @@
+package it.mattiolservices.mantivpn.antivpn.core;
+
+import java.io.IOException;
+
+// The login's decision budget ran out before a verdict was available
+public class DeadlineExceededException extends IOException {
+
+    public DeadlineExceededException(String message) {
+        super(message);
+    }
+}
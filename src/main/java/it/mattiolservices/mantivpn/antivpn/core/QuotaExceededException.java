@@ -0,0 +1,11 @@
+package it.mattiolservices.mantivpn.antivpn.core;
+
+import java.io.IOException;
+
+// The API quota left is reserved for lookups with a higher priority
+public class QuotaExceededException extends IOException {
+
+    public QuotaExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,76 @@
+package it.mattiolservices.mantivpn.antivpn.enforcement;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import it.mattiolservices.mantivpn.MAntiVPN;
+import lombok.extern.slf4j.Slf4j;
+import net.kyori.adventure.text.Component;
+
+import java.net.InetSocketAddress;
+import java.util.Optional;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+// Disconnects provisionally admitted players once their verdict comes back bad
+@Slf4j
+public class DeferredEnforcer {
+
+    private static final long RETRY_DELAY_MS = 250L;
+
+    private final ProxyServer proxyServer;
+    private final ScheduledExecutorService enforceExecutor;
+
+    public DeferredEnforcer(ProxyServer proxyServer) {
+        this.proxyServer = proxyServer;
+        this.enforceExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPN-DeferredEnforcer");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    // ip is the address the verdict is about, only a connection from it is ever disconnected
+    public void disconnect(String username, String ip, Component kickMessage) {
+        long timeoutMs = MAntiVPN.getConfigManager().getConfig().getLong("provisional-admit.enforce-timeout-ms", 10000L);
+        int attempts = (int) Math.max(1L, timeoutMs / RETRY_DELAY_MS);
+        enforceExecutor.execute(() -> tryDisconnect(username, ip, kickMessage, attempts));
+    }
+
+    // The verdict can arrive while the player is still logging in, so keep looking for a while
+    // Someone else online under the same name, from another address, is left alone
+    private void tryDisconnect(String username, String ip, Component kickMessage, int attemptsLeft) {
+        Optional<Player> player = proxyServer.getPlayer(username);
+        if (player.isPresent() && connectedFrom(player.get(), ip)) {
+            player.get().disconnect(kickMessage);
+            log.info("[!] Disconnected provisionally admitted player {} ({}) after a bad verdict", username, ip);
+            return;
+        }
+
+        if (attemptsLeft <= 1) {
+            if (MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
+                log.info("[!] Provisionally admitted player {} left before the verdict arrived", username);
+            }
+            return;
+        }
+
+        enforceExecutor.schedule(() -> tryDisconnect(username, ip, kickMessage, attemptsLeft - 1), RETRY_DELAY_MS, TimeUnit.MILLISECONDS);
+    }
+
+    private static boolean connectedFrom(Player player, String ip) {
+        InetSocketAddress address = player.getRemoteAddress();
+        return address != null && address.getAddress() != null && address.getAddress().getHostAddress().equals(ip);
+    }
+
+    public void shutdown() {
+        enforceExecutor.shutdown();
+        try {
+            if (!enforceExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                enforceExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            enforceExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
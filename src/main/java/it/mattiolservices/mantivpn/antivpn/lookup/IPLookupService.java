@@ -0,0 +1,165 @@
+package it.mattiolservices.mantivpn.antivpn.lookup;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.antivpn.blocklist.BlocklistIndex;
+import it.mattiolservices.mantivpn.antivpn.cache.AntiVPNCache;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.manager.AntiVPNManager;
+import it.mattiolservices.mantivpn.antivpn.quota.LookupPriority;
+import it.mattiolservices.mantivpn.antivpn.range.IPRangeDatabase;
+import it.mattiolservices.mantivpn.antivpn.tor.TorExitIndex;
+import it.mattiolservices.mantivpn.antivpn.type.CheckType;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.utils.AntiVPNUtils;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+public class IPLookupService {
+
+    @Getter
+    private final AntiVPNCache antiVPNCache;
+    private final AntiVPNManager antiVPNManager;
+    private final BlocklistIndex blocklistIndex;
+    private final IPRangeDatabase rangeDatabase;
+    private final TorExitIndex torExitIndex;
+    private final ConcurrentHashMap<String, RemoteLookup> inFlight;
+
+    public IPLookupService(AntiVPNCache antiVPNCache, AntiVPNManager antiVPNManager, BlocklistIndex blocklistIndex,
+                           IPRangeDatabase rangeDatabase, TorExitIndex torExitIndex) {
+        this.antiVPNCache = antiVPNCache;
+        this.antiVPNManager = antiVPNManager;
+        this.blocklistIndex = blocklistIndex;
+        this.rangeDatabase = rangeDatabase;
+        this.torExitIndex = torExitIndex;
+        this.inFlight = new ConcurrentHashMap<>();
+    }
+
+    // Answers from the local tiers only, null means a remote lookup is needed
+    public LookupResult lookupLocal(String ip) {
+        IPCheckResult result;
+        if ((result = fromBlocklist(ip)) != null) {
+            return new LookupResult(result, "blocklist");
+        }
+        if ((result = fromCache(ip)) != null) {
+            return new LookupResult(result, "cache");
+        }
+        if ((result = fromSharedCache(ip)) != null) {
+            return new LookupResult(result, "shared-cache");
+        }
+        if ((result = fromRangeList(ip)) != null) {
+            return new LookupResult(result, "range-list");
+        }
+        if ((result = fromTorList(ip)) != null) {
+            return new LookupResult(result, "tor-list");
+        }
+        return null;
+    }
+
+    // Like the range lists, a blocklist only answers for IPs it holds and whose flags are enabled checks
+    public IPCheckResult fromBlocklist(String ip) {
+        if (blocklistIndex == null) {
+            return null;
+        }
+
+        IPCheckResult blocked = blocklistIndex.lookup(ip);
+        return blocked != null && blocked.isSuspicious(MAntiVPN.getConfigManager()) ? blocked : null;
+    }
+
+    public IPCheckResult fromCache(String ip) {
+        return antiVPNCache.getCachedResult(ip);
+    }
+
+    public IPCheckResult fromSharedCache(String ip) {
+        return antiVPNCache.getSharedResult(ip);
+    }
+
+    // Range lists only answer for suspicious IPs, a clean range verdict still goes to the API
+    public IPCheckResult fromRangeList(String ip) {
+        if (rangeDatabase == null) {
+            return null;
+        }
+
+        IPCheckResult rangeResult = rangeDatabase.lookup(ip);
+        return rangeResult != null && rangeResult.isSuspicious(MAntiVPN.getConfigManager()) ? rangeResult : null;
+    }
+
+    public IPCheckResult fromTorList(String ip) {
+        if (torExitIndex == null || !MAntiVPN.getConfigManager().getConfig().getBoolean(CheckType.TOR.getConfigKey())) {
+            return null;
+        }
+        return torExitIndex.lookup(ip);
+    }
+
+    public CompletableFuture<LookupResult> lookup(String ip) {
+        LookupResult local = lookupLocal(ip);
+        if (local != null) {
+            return CompletableFuture.completedFuture(local);
+        }
+        return checkRemote(ip).thenApply(result -> new LookupResult(result, "remote"));
+    }
+
+    public CompletableFuture<IPCheckResult> checkRemote(String ip) {
+        return checkRemote(ip, LookupPriority.NORMAL);
+    }
+
+    // Concurrent lookups for the same IP, or the same IPv6 prefix, share a single API request
+    // The request has no deadline of its own, every caller bounds only its own wait on the future,
+    // so a login joining late is never cut short by the budget of the login that started it
+    // A request of lower priority is never joined, it may be refused by the quota the caller is entitled to
+    public CompletableFuture<IPCheckResult> checkRemote(String ip, LookupPriority priority) {
+        String key = AntiVPNUtils.cacheKey(ip);
+        RemoteLookup future = new RemoteLookup(priority);
+        while (true) {
+            RemoteLookup existing = inFlight.get(key);
+            if (existing != null && existing.getPriority().compareTo(priority) <= 0) {
+                return existing;
+            }
+            if (existing == null ? inFlight.putIfAbsent(key, future) == null : inFlight.replace(key, existing, future)) {
+                break;
+            }
+        }
+
+        antiVPNManager.checkIPAsync(ip, priority, AntiVPNManager.NO_DEADLINE, future.getAttempts()).whenComplete((result, throwable) -> {
+            inFlight.remove(key, future);
+
+            if (throwable != null) {
+                future.completeExceptionally(throwable);
+                return;
+            }
+
+            storeResult(ip, result);
+            future.complete(result);
+        });
+
+        return future;
+    }
+
+    public int getInFlightCount() {
+        return inFlight.size();
+    }
+
+    private void storeResult(String ip, IPCheckResult result) {
+        ConfigManager config = MAntiVPN.getConfigManager();
+
+        if (!result.isSuspicious(config)) {
+            antiVPNCache.cacheResult(ip, result);
+
+            if (config.getConfig().getBoolean("Debug.enable")) {
+                log.info("[!] Cached clean result for IP: {}", ip);
+            }
+        } else {
+            if (antiVPNCache.isCached(ip)) {
+                antiVPNCache.invalidateCache(ip);
+            }
+            antiVPNCache.cacheBlocked(ip, result);
+
+            if (config.getConfig().getBoolean("Debug.enable")) {
+                log.info("[!] Not caching suspicious result for IP: {}, remembered for early rejection", ip);
+            }
+        }
+    }
+}
@@ -0,0 +1,8 @@
+package it.mattiolservices.mantivpn.antivpn.lookup;
+
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+
+public record LookupResult(
+        IPCheckResult result,
+        String source
+) {}
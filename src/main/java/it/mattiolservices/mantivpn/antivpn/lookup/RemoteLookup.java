@@ -0,0 +1,27 @@
+package it.mattiolservices.mantivpn.antivpn.lookup;
+
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.quota.LookupPriority;
+import it.mattiolservices.mantivpn.antivpn.trace.AttemptLog;
+import lombok.Getter;
+
+import java.util.concurrent.CompletableFuture;
+
+// An in-flight API request, every login sharing it can see how its attempts went
+public final class RemoteLookup extends CompletableFuture<IPCheckResult> {
+
+    @Getter
+    private final AttemptLog attempts = new AttemptLog();
+    @Getter
+    private final LookupPriority priority;
+
+    public RemoteLookup(LookupPriority priority) {
+        this.priority = priority;
+    }
+
+    // Dependent stages are plain futures, only the request itself carries the log
+    @Override
+    public <U> CompletableFuture<U> newIncompleteFuture() {
+        return new CompletableFuture<>();
+    }
+}
@@ -3,107 +3,171 @@ package it.mattiolservices.mantivpn.antivpn.manager;
 import com.google.gson.Gson;
 import com.google.gson.JsonObject;
 import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.antivpn.core.DeadlineExceededException;
 import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.core.QuotaExceededException;
+import it.mattiolservices.mantivpn.antivpn.quota.ApiQuota;
+import it.mattiolservices.mantivpn.antivpn.quota.LookupPriority;
+import it.mattiolservices.mantivpn.antivpn.trace.AttemptLog;
 import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.http.HttpTransport;
 import okhttp3.*;
 import org.slf4j.Logger;
 
 import java.io.IOException;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 public class AntiVPNManager {
 
+    public static final long NO_DEADLINE = Long.MAX_VALUE;
+
     private final ConfigManager configManager;
     private final Logger logger;
-    private final OkHttpClient httpClient;
+    private final AtomicReference<OkHttpClient> httpClient;
     private final Gson gson;
+    private final HttpTransport httpTransport;
+    private final String baseUrl;
+    private final ApiQuota quota;
+
+    public AntiVPNManager(ConfigManager configManager, Logger logger, HttpTransport httpTransport, ApiQuota quota) {
+        this(configManager, logger, httpTransport, "https://antivpn.cc", quota);
+    }
 
-    public AntiVPNManager(ConfigManager configManager, Logger logger) {
+    // A null quota never refuses a request
+    public AntiVPNManager(ConfigManager configManager, Logger logger, HttpTransport httpTransport, String baseUrl, ApiQuota quota) {
         this.configManager = configManager;
         this.logger = logger;
-        this.httpClient = new OkHttpClient.Builder()
-                .connectTimeout(configManager.getConfig().getLong("antivpn.timeout"), TimeUnit.MILLISECONDS)
-                .readTimeout(configManager.getConfig().getLong("antivpn.timeout"), TimeUnit.MILLISECONDS)
-                .writeTimeout(configManager.getConfig().getLong("antivpn.timeout"), TimeUnit.MILLISECONDS)
-                .build();
+        this.httpTransport = httpTransport;
+        this.baseUrl = baseUrl;
+        this.quota = quota;
+        long timeout = configManager.getConfig().getLong("antivpn.timeout");
+        this.httpClient = new AtomicReference<>(httpTransport.client(timeout, timeout));
         this.gson = new Gson();
     }
 
+    // The new client shares the connection pool and dispatcher, calls already running finish on the old one
+    public void reload() {
+        long timeout = configManager.getConfig().getLong("antivpn.timeout");
+        OkHttpClient current = httpClient.get();
+        if (current.connectTimeoutMillis() == timeout && current.readTimeoutMillis() == timeout) {
+            return;
+        }
+
+        httpClient.set(httpTransport.client(timeout, timeout));
+        logger.info("[!] API client timeout changed to {}ms", timeout);
+    }
+
+    public ApiQuota getQuota() {
+        return quota;
+    }
+
     public CompletableFuture<IPCheckResult> checkIPAsync(String ip) {
+        return checkIPAsync(ip, LookupPriority.NORMAL, NO_DEADLINE);
+    }
+
+    public CompletableFuture<IPCheckResult> checkIPAsync(String ip, LookupPriority priority) {
+        return checkIPAsync(ip, priority, NO_DEADLINE);
+    }
+
+    // Attempts and retry pauses are cut to fit before the deadline, a System.nanoTime() value
+    // Every attempt spends quota, a refused one fails the lookup with QuotaExceededException
+    public CompletableFuture<IPCheckResult> checkIPAsync(String ip, LookupPriority priority, long deadlineNanos) {
+        return checkIPAsync(ip, priority, deadlineNanos, null);
+    }
+
+    // The timing and status of every attempt go to the log when one is given
+    public CompletableFuture<IPCheckResult> checkIPAsync(String ip, LookupPriority priority, long deadlineNanos, AttemptLog attempts) {
         return CompletableFuture.supplyAsync(() -> {
             try {
-                return checkIP(ip);
+                return checkIP(ip, priority, deadlineNanos, attempts);
+            } catch (DeadlineExceededException | QuotaExceededException e) {
+                // Let the caller apply its own policy instead of assuming a clean result
+                throw new CompletionException(e);
             } catch (Exception e) {
+                // A failed lookup has no verdict, nothing may cache it or count it as clean
                 logger.error("Failed to check IP: " + ip, e);
-                return new IPCheckResult(ip, false, false, false,
-                        false, true, 0.0, "unknown", "unknown");
+                throw new CompletionException(e);
             }
         });
     }
 
-    private IPCheckResult checkIP(String ip) throws IOException {
+    private IPCheckResult checkIP(String ip, LookupPriority priority, long deadlineNanos, AttemptLog attempts) throws IOException {
         String apiKey = configManager.getConfig().getString("antivpn.apikey");
         if (apiKey.isEmpty() || "YOUR_API_KEY_HERE".equals(apiKey)) {
             logger.error("[!] The API key is not configured! Falling back to test mode.");
-            return checkIPTest(ip);
+            return checkIPTest(ip, priority, deadlineNanos, attempts);
         }
 
         JsonObject requestBody = new JsonObject();
         requestBody.addProperty("ip", ip);
 
         Request request = new Request.Builder()
-                .url("https://antivpn.cc/api/check")
+                .url(baseUrl + "/api/check")
                 .addHeader("Authorization", "Bearer " + apiKey)
                 .addHeader("Content-Type", "application/json")
                 .post(RequestBody.create(requestBody.toString(), MediaType.parse("application/json; charset=utf-8")))
                 .build();
 
-        return executeRequestWithRetry(request, ip, configManager.getConfig().getInt("antivpn.retries"));
+        return executeRequestWithRetry(request, ip, configManager.getConfig().getInt("antivpn.retries"), priority, deadlineNanos, attempts);
     }
 
-    private IPCheckResult checkIPTest(String ip) throws IOException {
+    private IPCheckResult checkIPTest(String ip, LookupPriority priority, long deadlineNanos, AttemptLog attempts) throws IOException {
         JsonObject requestBody = new JsonObject();
         requestBody.addProperty("ip", ip);
 
         Request request = new Request.Builder()
-                .url("https://antivpn.cc/api/test-check")
+                .url(baseUrl + "/api/test-check")
                 .addHeader("Content-Type", "application/json")
                 .post(RequestBody.create(requestBody.toString(), MediaType.parse("application/json; charset=utf-8")))
                 .build();
 
-        return executeRequestWithRetry(request, ip, configManager.getConfig().getInt("antivpn.retries"));
+        return executeRequestWithRetry(request, ip, configManager.getConfig().getInt("antivpn.retries"), priority, deadlineNanos, attempts);
     }
 
-    private IPCheckResult executeRequestWithRetry(Request request, String ip, int maxRetries)
-            throws IOException {
+    private IPCheckResult executeRequestWithRetry(Request request, String ip, int maxRetries, LookupPriority priority,
+                                                  long deadlineNanos, AttemptLog attempts) throws IOException {
 
         IOException lastException = null;
+        OkHttpClient client = httpClient.get();
 
         for (int attempt = 1; attempt <= maxRetries; attempt++) {
-            try (Response response = httpClient.newCall(request).execute()) {
+            // Checked before the quota, a login out of budget must not spend a token it can't use
+            if (deadlineNanos != NO_DEADLINE && deadlineNanos - System.nanoTime() < minimumAttemptNanos()) {
+                throw new DeadlineExceededException("Decision budget exhausted after " + (attempt - 1) + " attempts");
+            }
+            if (quota != null && !quota.tryAcquire(priority, quotaWaitUntil(priority, deadlineNanos))) {
+                if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
+                    logger.warn("[!] API quota low, keeping the {} priority lookup for {} local", priority, ip);
+                }
+                throw new QuotaExceededException("API quota reserved for higher priority lookups after " + (attempt - 1) + " attempts");
+            }
+
+            Call call = client.newCall(request);
+            if (deadlineNanos != NO_DEADLINE) {
+                // The quota wait is capped to leave at least the minimum attempt time
+                call.timeout().timeout(Math.max(minimumAttemptNanos(), deadlineNanos - System.nanoTime()), TimeUnit.NANOSECONDS);
+            }
+
+            long attemptStart = System.nanoTime();
+            try (Response response = call.execute()) {
+                if (attempts != null) {
+                    attempts.record(System.nanoTime() - attemptStart, response.code());
+                }
 
                 if (response.isSuccessful()) {
                     String responseBody = response.body().string();
                     return parseResponse(responseBody, ip);
                 } else if (response.code() == 429) {
                     if (attempt < maxRetries) {
-                        try {
-                            Thread.sleep(Math.min(1000L * attempt, 5000L));
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            throw new IOException("Request interrupted", e);
-                        }
+                        pauseBeforeRetry(attempt, deadlineNanos);
                         continue;
                     }
                 } else if (response.code() >= 500 && response.code() < 600) {
                     if (attempt < maxRetries) {
-                        try {
-                            Thread.sleep(Math.min(1000L * attempt, 5000L));
-                        } catch (InterruptedException e) {
-                            Thread.currentThread().interrupt();
-                            throw new IOException("Request interrupted", e);
-                        }
+                        pauseBeforeRetry(attempt, deadlineNanos);
                         continue;
                     }
                 }
@@ -111,19 +175,19 @@ public class AntiVPNManager {
                 String responseBody = response.body() != null ? response.body().string() : "";
                 throw new IOException("HTTP " + response.code() + ": " + responseBody);
 
+            } catch (DeadlineExceededException | QuotaExceededException e) {
+                throw e;
             } catch (IOException e) {
                 lastException = e;
+                if (attempts != null && attempts.count() < attempt) {
+                    attempts.record(System.nanoTime() - attemptStart, 0);
+                }
                 if (attempt < maxRetries) {
                     if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
                         logger.warn("[!] API request failed (attempt {}/{}): {}", attempt, maxRetries, e.getMessage());
                     }
 
-                    try {
-                        Thread.sleep(Math.min(1000L * attempt, 5000L));
-                    } catch (InterruptedException ie) {
-                        Thread.currentThread().interrupt();
-                        throw new IOException("Request interrupted", ie);
-                    }
+                    pauseBeforeRetry(attempt, deadlineNanos);
                 } else {
                     if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
                         logger.error("[!] API request failed after {} attempts", maxRetries, e);
@@ -135,7 +199,38 @@ public class AntiVPNManager {
         throw new IOException("All retry attempts failed", lastException);
     }
 
-    private IPCheckResult parseResponse(String responseBody, String ip) {
+    // Skips the pause, and with it the retry, when the budget could not cover another attempt afterwards
+    private void pauseBeforeRetry(int attempt, long deadlineNanos) throws IOException {
+        long pauseMillis = Math.min(1000L * attempt, 5000L);
+        if (deadlineNanos != NO_DEADLINE
+                && deadlineNanos - System.nanoTime() - TimeUnit.MILLISECONDS.toNanos(pauseMillis) < minimumAttemptNanos()) {
+            throw new DeadlineExceededException("Decision budget too small for retry " + (attempt + 1));
+        }
+
+        try {
+            Thread.sleep(pauseMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Request interrupted", e);
+        }
+    }
+
+    // Logins wait for the per-second bucket, as long as an attempt still fits before the deadline afterwards
+    private long quotaWaitUntil(LookupPriority priority, long deadlineNanos) {
+        long now = System.nanoTime();
+        if (!priority.isLogin()) {
+            return now;
+        }
+
+        long waitUntil = now + TimeUnit.MILLISECONDS.toNanos(configManager.getConfig().getLong("quota.high-wait-ms", 1000L));
+        return deadlineNanos == NO_DEADLINE ? waitUntil : Math.min(waitUntil, deadlineNanos - minimumAttemptNanos());
+    }
+
+    private long minimumAttemptNanos() {
+        return TimeUnit.MILLISECONDS.toNanos(configManager.getConfig().getLong("antivpn.min-attempt-ms", 250L));
+    }
+
+    private IPCheckResult parseResponse(String responseBody, String ip) throws IOException {
         try {
             JsonObject json = gson.fromJson(responseBody, JsonObject.class);
 
@@ -152,9 +247,7 @@ public class AntiVPNManager {
                     residential, threatScore, country, provider);
 
         } catch (Exception e) {
-            logger.error("Failed to parse API response", e);
-            return new IPCheckResult(ip, false, false, false,
-                    false, true, 0.0, "unknown", "unknown");
+            throw new IOException("Failed to parse API response", e);
         }
     }
 }
\ No newline at end of file
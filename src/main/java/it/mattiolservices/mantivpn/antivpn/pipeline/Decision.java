@@ -0,0 +1,35 @@
+package it.mattiolservices.mantivpn.antivpn.pipeline;
+
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+
+import java.util.concurrent.CompletableFuture;
+
+public record Decision(Kind kind, IPCheckResult result, String source, CompletableFuture<IPCheckResult> pending) {
+
+    public static Decision verdict(IPCheckResult result, String source) {
+        return result == null ? null : new Decision(Kind.VERDICT, result, source, null);
+    }
+
+    public static Decision whitelisted() {
+        return new Decision(Kind.WHITELISTED, null, "whitelist", null);
+    }
+
+    public static Decision trusted() {
+        return new Decision(Kind.TRUSTED, null, "reputation", null);
+    }
+
+    public static Decision provisional(CompletableFuture<IPCheckResult> pending) {
+        return new Decision(Kind.PROVISIONAL, null, "remote", pending);
+    }
+
+    public enum Kind {
+        // A detection result to enforce
+        VERDICT,
+        // Allowed without any check
+        WHITELISTED,
+        // Allowed on reputation, the API may still be asked in the background
+        TRUSTED,
+        // Allowed while the API is slow, enforced once the pending verdict arrives
+        PROVISIONAL
+    }
+}
@@ -0,0 +1,10 @@
+package it.mattiolservices.mantivpn.antivpn.pipeline;
+
+import it.mattiolservices.mantivpn.antivpn.trace.LoginTrace;
+
+import java.util.UUID;
+
+// uniqueId is the account the player will log in as, null when it can't be told before authentication
+// deadlineNanos is a System.nanoTime() value, AntiVPNManager.NO_DEADLINE when the login has no budget
+// trace is null when the login isn't traced
+public record DecisionContext(String username, UUID uniqueId, String ip, long startNanos, long deadlineNanos, LoginTrace trace) {}
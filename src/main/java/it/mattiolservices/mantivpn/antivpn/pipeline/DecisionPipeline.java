@@ -0,0 +1,180 @@
+package it.mattiolservices.mantivpn.antivpn.pipeline;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.antivpn.core.DeadlineExceededException;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.core.QuotaExceededException;
+import it.mattiolservices.mantivpn.antivpn.lookup.IPLookupService;
+import it.mattiolservices.mantivpn.antivpn.lookup.RemoteLookup;
+import it.mattiolservices.mantivpn.antivpn.manager.AntiVPNManager;
+import it.mattiolservices.mantivpn.antivpn.quota.LookupPriority;
+import it.mattiolservices.mantivpn.antivpn.reputation.ReputationStore;
+import it.mattiolservices.mantivpn.antivpn.trace.LoginTrace;
+import it.mattiolservices.mantivpn.discord.DiscordWebhookManager;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+
+@Slf4j
+public class DecisionPipeline {
+
+    private static final List<String> DEFAULT_ORDER = List.of(
+            "whitelist", "blocklist", "cache", "shared-cache", "range-list", "tor-list", "reputation", "remote");
+
+    @Getter
+    private final IPLookupService lookupService;
+    private final ReputationStore reputationStore;
+    private final Map<String, DecisionStage> registeredStages;
+    private final Map<String, StageStats> stats;
+    private final LongAdder deadlineMisses = new LongAdder();
+    private final LongAdder overrunNanos = new LongAdder();
+    private volatile List<DecisionStage> stages;
+
+    public DecisionPipeline(IPLookupService lookupService, ReputationStore reputationStore) {
+        this.lookupService = lookupService;
+        this.reputationStore = reputationStore;
+        this.registeredStages = new LinkedHashMap<>();
+        this.stats = new ConcurrentHashMap<>();
+
+        register(DecisionStage.of("whitelist", context ->
+                MAntiVPN.getConfigManager().getConfig().getStringList("whitelist").contains(context.ip())
+                        ? Decision.whitelisted() : null));
+        register(DecisionStage.of("blocklist", context -> Decision.verdict(lookupService.fromBlocklist(context.ip()), "blocklist")));
+        register(DecisionStage.of("cache", context -> Decision.verdict(lookupService.fromCache(context.ip()), "cache")));
+        register(DecisionStage.of("shared-cache", context -> Decision.verdict(lookupService.fromSharedCache(context.ip()), "shared-cache")));
+        register(DecisionStage.of("range-list", context -> Decision.verdict(lookupService.fromRangeList(context.ip()), "range-list")));
+        register(DecisionStage.of("tor-list", context -> Decision.verdict(lookupService.fromTorList(context.ip()), "tor-list")));
+        register(DecisionStage.of("reputation", context ->
+                reputationStore != null && reputationStore.isTrusted(context.uniqueId(), context.ip())
+                        ? Decision.trusted() : null));
+        register(DecisionStage.of("remote", this::evaluateRemote));
+
+        reload();
+    }
+
+    // Extra stages only run once their name is listed in pipeline.order
+    public synchronized void register(DecisionStage stage) {
+        registeredStages.put(stage.name(), stage);
+        stats.putIfAbsent(stage.name(), new StageStats());
+    }
+
+    public synchronized void reload() {
+        List<String> order = MAntiVPN.getConfigManager().getConfig().getStringList("pipeline.order", DEFAULT_ORDER);
+        List<DecisionStage> ordered = new ArrayList<>(order.size());
+        for (String name : order) {
+            DecisionStage stage = registeredStages.get(name);
+            if (stage == null) {
+                log.warn("[!] Unknown decision stage '{}' in pipeline.order, skipping it", name);
+                continue;
+            }
+            ordered.add(stage);
+        }
+        this.stages = List.copyOf(ordered);
+    }
+
+    // Runs the stages in order and stops at the first one with an answer, null when none had one
+    public Decision decide(DecisionContext context) throws Exception {
+        LoginTrace trace = context.trace();
+        for (DecisionStage stage : stages) {
+            StageStats stageStats = stats.get(stage.name());
+            long begin = System.nanoTime();
+            Decision decision;
+            try {
+                decision = stage.evaluate(context);
+            } catch (Exception e) {
+                stageStats.recordError(System.nanoTime() - begin);
+                if (trace != null) {
+                    trace.stage(stage.name(), System.nanoTime() - begin);
+                }
+                throw e;
+            }
+
+            long elapsed = System.nanoTime() - begin;
+            stageStats.record(elapsed, decision != null);
+            if (trace != null) {
+                trace.stage(stage.name(), elapsed);
+            }
+            if (decision != null) {
+                return decision;
+            }
+        }
+        return null;
+    }
+
+    private Decision evaluateRemote(DecisionContext context) throws Exception {
+        long deadlineNanos = context.deadlineNanos();
+        CompletableFuture<IPCheckResult> future = lookupService.checkRemote(context.ip(), loginPriority(context));
+
+        long waitUntilNanos = deadlineNanos;
+        long provisionalMillis = MAntiVPN.getConfigManager().getConfig().getBoolean("provisional-admit.enabled", false)
+                ? MAntiVPN.getConfigManager().getConfig().getLong("provisional-admit.after-ms", 750L) : 0L;
+        if (provisionalMillis > 0) {
+            waitUntilNanos = Math.min(deadlineNanos, context.startNanos() + TimeUnit.MILLISECONDS.toNanos(provisionalMillis));
+        }
+
+        long waitStart = System.nanoTime();
+        try {
+            if (waitUntilNanos == AntiVPNManager.NO_DEADLINE) {
+                return Decision.verdict(future.get(), "remote");
+            }
+
+            return Decision.verdict(future.get(Math.max(0L, waitUntilNanos - System.nanoTime()), TimeUnit.NANOSECONDS), "remote");
+        } catch (TimeoutException e) {
+            if (waitUntilNanos < deadlineNanos) {
+                return Decision.provisional(future);
+            }
+
+            // The lookup keeps running for the cache, the time it takes past the deadline is tracked
+            deadlineMisses.increment();
+            future.whenComplete((result, throwable) -> overrunNanos.add(Math.max(0L, System.nanoTime() - deadlineNanos)));
+            throw new DeadlineExceededException("Decision budget exceeded while waiting for the API");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof QuotaExceededException quotaExceeded) {
+                // Nothing local answered, JoinListener applies quota.refused-logins
+                throw quotaExceeded;
+            }
+            throw e;
+        } finally {
+            if (context.trace() != null) {
+                context.trace().network(System.nanoTime() - waitStart,
+                        future instanceof RemoteLookup remote ? remote.getAttempts() : null);
+            }
+        }
+    }
+
+    // Returning pairs keep the login priority during a flood, unknown ones leave them a reserve
+    // Without the reputation store there is no telling them apart and every login stays HIGH
+    private LookupPriority loginPriority(DecisionContext context) {
+        DiscordWebhookManager webhookManager = MAntiVPN.getInstance().getDiscordWebhookManager();
+        if (reputationStore == null || context.uniqueId() == null || webhookManager == null || !webhookManager.isFloodMode()) {
+            return LookupPriority.HIGH;
+        }
+        return reputationStore.isKnown(context.uniqueId(), context.ip()) ? LookupPriority.HIGH : LookupPriority.NEW_LOGIN;
+    }
+
+    public long getDeadlineMisses() {
+        return deadlineMisses.sum();
+    }
+
+    public long getOverrunNanos() {
+        return overrunNanos.sum();
+    }
+
+    public List<String> getStageOrder() {
+        return stages.stream().map(DecisionStage::name).toList();
+    }
+
+    public StageStats getStats(String stageName) {
+        return stats.get(stageName);
+    }
+}
@@ -0,0 +1,28 @@
+package it.mattiolservices.mantivpn.antivpn.pipeline;
+
+public interface DecisionStage {
+
+    String name();
+
+    // Returns null to pass the login on to the next stage
+    Decision evaluate(DecisionContext context) throws Exception;
+
+    static DecisionStage of(String name, Evaluator evaluator) {
+        return new DecisionStage() {
+            @Override
+            public String name() {
+                return name;
+            }
+
+            @Override
+            public Decision evaluate(DecisionContext context) throws Exception {
+                return evaluator.evaluate(context);
+            }
+        };
+    }
+
+    @FunctionalInterface
+    interface Evaluator {
+        Decision evaluate(DecisionContext context) throws Exception;
+    }
+}
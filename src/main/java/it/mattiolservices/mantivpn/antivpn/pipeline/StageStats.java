@@ -0,0 +1,51 @@
+package it.mattiolservices.mantivpn.antivpn.pipeline;
+
+import java.util.concurrent.atomic.LongAdder;
+
+public final class StageStats {
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder errors = new LongAdder();
+    private final LongAdder totalNanos = new LongAdder();
+
+    void record(long nanos, boolean hit) {
+        calls.increment();
+        totalNanos.add(nanos);
+        if (hit) {
+            hits.increment();
+        }
+    }
+
+    void recordError(long nanos) {
+        calls.increment();
+        errors.increment();
+        totalNanos.add(nanos);
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getHits() {
+        return hits.sum();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    public long getTotalNanos() {
+        return totalNanos.sum();
+    }
+
+    public double getHitRate() {
+        long total = getCalls();
+        return total == 0 ? 0.0 : (double) getHits() / total;
+    }
+
+    public double getAverageMicros() {
+        long total = getCalls();
+        return total == 0 ? 0.0 : getTotalNanos() / 1000.0 / total;
+    }
+}
@@ -0,0 +1,227 @@
+package it.mattiolservices.mantivpn.antivpn.quota;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+// Tracks API requests against the provider plan, a per-second bucket and a daily allowance
+@Slf4j
+public class ApiQuota {
+
+    private static final int MAGIC = 0x4D51544F;
+    private static final int VERSION = 1;
+
+    private final Path file;
+    private final ScheduledExecutorService persistExecutor;
+    private final LongAdder rejected = new LongAdder();
+
+    @Getter
+    private volatile boolean enabled;
+    @Getter
+    private volatile int perSecond;
+    @Getter
+    private volatile long perDay;
+    private volatile ZoneId resetZone;
+
+    private double secondTokens;
+    private long lastRefillNanos;
+    private long epochDay;
+    private long usedToday;
+    private boolean dirty;
+
+    public ApiQuota() {
+        this.file = MAntiVPN.getInstance().getDataDirectory().resolve("quota.dat");
+        reload();
+        this.secondTokens = perSecond;
+        this.lastRefillNanos = System.nanoTime();
+        this.epochDay = today();
+
+        // Loaded right away, a restart must not hand out a fresh daily allowance
+        load();
+
+        this.persistExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPN-Quota");
+            t.setDaemon(true);
+            return t;
+        });
+        this.persistExecutor.scheduleWithFixedDelay(this::save, 1, 1, TimeUnit.MINUTES);
+    }
+
+    public void reload() {
+        ConfigManager config = MAntiVPN.getConfigManager();
+        this.enabled = config.getConfig().getBoolean("quota.enabled", false);
+        this.perSecond = Math.max(0, config.getConfig().getInt("quota.per-second", 10));
+        this.perDay = Math.max(0L, config.getConfig().getLong("quota.per-day", 10000L));
+
+        String zone = config.getConfig().getString("quota.reset-timezone", "UTC");
+        try {
+            this.resetZone = ZoneId.of(zone);
+        } catch (DateTimeException e) {
+            log.warn("[!] Unknown quota.reset-timezone '{}', using UTC", zone);
+            this.resetZone = ZoneOffset.UTC;
+        }
+    }
+
+    // Lower priorities leave their reserve of both budgets to the ones above them
+    public boolean tryAcquire(LookupPriority priority) {
+        return tryAcquire(priority, System.nanoTime());
+    }
+
+    // Waits for the per-second bucket until waitUntilNanos, a System.nanoTime() value, a spent day is refused at once
+    public boolean tryAcquire(LookupPriority priority, long waitUntilNanos) {
+        if (!enabled) {
+            return true;
+        }
+
+        double reserve = priority.getReserveKey() == null ? 0.0
+                : MAntiVPN.getConfigManager().getConfig().getDouble(priority.getReserveKey(), priority.getDefaultReserve());
+
+        while (true) {
+            long waitNanos;
+            synchronized (this) {
+                refill();
+                if (perDay > 0 && perDay - usedToday < 1.0 + reserve * perDay) {
+                    rejected.increment();
+                    return false;
+                }
+
+                double needed = 1.0 + reserve * perSecond;
+                if (perSecond <= 0 || secondTokens >= needed) {
+                    secondTokens -= 1.0;
+                    usedToday++;
+                    dirty = true;
+                    return true;
+                }
+                waitNanos = (long) Math.ceil((needed - secondTokens) * 1_000_000_000.0 / perSecond);
+            }
+
+            if (waitNanos > waitUntilNanos - System.nanoTime()) {
+                rejected.increment();
+                return false;
+            }
+
+            try {
+                TimeUnit.NANOSECONDS.sleep(waitNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                rejected.increment();
+                return false;
+            }
+        }
+    }
+
+    public synchronized long getSecondRemaining() {
+        refill();
+        return (long) secondTokens;
+    }
+
+    public synchronized long getDayRemaining() {
+        refill();
+        return Math.max(0L, perDay - usedToday);
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    private void refill() {
+        long now = System.nanoTime();
+        if (perSecond > 0) {
+            secondTokens = Math.min(perSecond, secondTokens + (now - lastRefillNanos) * perSecond / 1_000_000_000.0);
+        }
+        lastRefillNanos = now;
+
+        long day = today();
+        if (day != epochDay) {
+            epochDay = day;
+            usedToday = 0L;
+            dirty = true;
+        }
+    }
+
+    private long today() {
+        return LocalDate.now(resetZone).toEpochDay();
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("[!] Ignoring {} written by an unsupported version", file.getFileName());
+                return;
+            }
+
+            long savedDay = in.readLong();
+            long savedUsed = in.readLong();
+            synchronized (this) {
+                if (savedDay == epochDay) {
+                    usedToday = savedUsed;
+                }
+            }
+        } catch (IOException e) {
+            log.error("[!] Failed to load the API quota from {}: {}", file.getFileName(), e.getMessage());
+        }
+    }
+
+    public void save() {
+        long day;
+        long used;
+        synchronized (this) {
+            if (!dirty) {
+                return;
+            }
+            day = epochDay;
+            used = usedToday;
+            dirty = false;
+        }
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeLong(day);
+                out.writeLong(used);
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("[!] Failed to save the API quota to {}: {}", file.getFileName(), e.getMessage());
+        }
+    }
+
+    public void shutdown() {
+        persistExecutor.shutdown();
+        try {
+            if (!persistExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                persistExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            persistExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        save();
+    }
+}
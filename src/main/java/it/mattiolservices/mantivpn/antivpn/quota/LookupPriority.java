@@ -0,0 +1,26 @@
+package it.mattiolservices.mantivpn.antivpn.quota;
+
+import lombok.Getter;
+
+@Getter
+public enum LookupPriority {
+    // Logins waiting on the API, during a flood only those of account and IP pairs seen clean before
+    HIGH(null, 0.0, true),
+    // Lookups asked for by staff or other plugins
+    NORMAL("quota.reserve.normal", 0.1, false),
+    // Logins of pairs never seen clean before while alerts flood in, a bot wave can't take the returning players' share
+    NEW_LOGIN("quota.reserve.new-login", 0.2, true),
+    // Re-checks, scans and warm-up, the first to go when the budget runs low
+    LOW("quota.reserve.low", 0.3, false);
+    private final String reserveKey;
+    private final double defaultReserve;
+    // Logins may wait for the per-second bucket, everything else is refused at once
+    private final boolean login;
+
+    LookupPriority(String reserveKey, double defaultReserve, boolean login) {
+        this.reserveKey = reserveKey;
+        this.defaultReserve = defaultReserve;
+        this.login = login;
+    }
+
+}
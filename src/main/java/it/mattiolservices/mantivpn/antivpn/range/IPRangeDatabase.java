@@ -0,0 +1,146 @@
+package it.mattiolservices.mantivpn.antivpn.range;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.utils.AntiVPNUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class IPRangeDatabase {
+
+    private final Path rangesDirectory;
+    private final RangeTableBuilder builder;
+    private final Map<Path, ParsedRangeFile> parsedFiles;
+    private final ScheduledExecutorService reloadExecutor;
+    private volatile RangeSnapshot snapshot;
+
+    public IPRangeDatabase() {
+        this(MAntiVPN.getInstance().getDataDirectory()
+                        .resolve(MAntiVPN.getConfigManager().getConfig().getString("ranges.folder", "ranges")),
+                MAntiVPN.getConfigManager().getConfig().getInt("ranges.mmap-threshold", 500000));
+
+        ConfigManager config = MAntiVPN.getConfigManager();
+        long reloadMinutes = Math.max(1L, config.getConfig().getLong("ranges.reload-minutes", 10L));
+        this.reloadExecutor.scheduleWithFixedDelay(this::reload, 0, reloadMinutes, TimeUnit.MINUTES);
+    }
+
+    // Nothing is loaded until reload() runs, tests call it directly
+    IPRangeDatabase(Path rangesDirectory, int mmapThreshold) {
+        this.rangesDirectory = rangesDirectory;
+        this.builder = new RangeTableBuilder(rangesDirectory.resolve(".compiled"), mmapThreshold);
+        this.parsedFiles = new HashMap<>();
+        this.snapshot = RangeSnapshot.EMPTY;
+        this.reloadExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPN-RangeDatabase");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public IPCheckResult lookup(String ip) {
+        RangeSnapshot current = snapshot;
+
+        long v4 = AntiVPNUtils.parseIPv4(ip);
+        if (v4 >= 0) {
+            int index = current.v4().find((int) v4);
+            return index < 0 ? null : toResult(ip, current.v4().flagsAt(index), current.providers()[current.v4().providerAt(index)]);
+        }
+
+        if (current.v6().size() == 0) {
+            return null;
+        }
+
+        long[] v6 = AntiVPNUtils.parseIPv6(ip);
+        if (v6 == null) {
+            return null;
+        }
+
+        int index = current.v6().find(v6[0], v6[1]);
+        return index < 0 ? null : toResult(ip, current.v6().flagsAt(index), current.providers()[current.v6().providerAt(index)]);
+    }
+
+    public int getRangeCount() {
+        RangeSnapshot current = snapshot;
+        return current.v4().size() + current.v6().size();
+    }
+
+    public void reloadAsync() {
+        reloadExecutor.execute(this::reload);
+    }
+
+    // Only runs on the reload executor, unchanged files keep their parsed rows
+    void reload() {
+        try {
+            Files.createDirectories(rangesDirectory);
+
+            Map<Path, ParsedRangeFile> current = new HashMap<>();
+            boolean changed = false;
+
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(rangesDirectory, "*.csv")) {
+                for (Path file : files) {
+                    ParsedRangeFile previous = parsedFiles.get(file);
+                    if (previous != null
+                            && previous.lastModified == Files.getLastModifiedTime(file).toMillis()
+                            && previous.fileSize == Files.size(file)) {
+                        current.put(file, previous);
+                        continue;
+                    }
+
+                    ParsedRangeFile parsed = ParsedRangeFile.parse(file);
+                    if (parsed.skippedLines > 0) {
+                        log.warn("[!] Skipped {} invalid lines in range list {}", parsed.skippedLines, file.getFileName());
+                    }
+                    current.put(file, parsed);
+                    changed = true;
+                }
+            }
+
+            if (!changed && current.size() == parsedFiles.size()) {
+                return;
+            }
+
+            RangeSnapshot rebuilt = builder.build(current.values());
+            parsedFiles.clear();
+            parsedFiles.putAll(current);
+            this.snapshot = rebuilt;
+
+            log.info("[/] Loaded {} IPv4 and {} IPv6 ranges from {} range lists",
+                    rebuilt.v4().size(), rebuilt.v6().size(), current.size());
+        } catch (IOException e) {
+            log.error("[!] Failed to reload IP range lists: {}", e.getMessage());
+        }
+    }
+
+    private IPCheckResult toResult(String ip, byte flags, String provider) {
+        return new IPCheckResult(ip,
+                RangeFlags.has(flags, RangeFlags.VPN),
+                RangeFlags.has(flags, RangeFlags.PROXY),
+                RangeFlags.has(flags, RangeFlags.TOR),
+                RangeFlags.has(flags, RangeFlags.DATACENTER),
+                RangeFlags.has(flags, RangeFlags.RESIDENTIAL),
+                0.0, "unknown", provider);
+    }
+
+    public void shutdown() {
+        reloadExecutor.shutdown();
+        try {
+            if (!reloadExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                reloadExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            reloadExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,56 @@
+package it.mattiolservices.mantivpn.antivpn.range;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+
+// Sorted, non-overlapping ranges; addresses are stored with the sign bit flipped so signed compares order them unsigned
+public final class IPv4RangeTable {
+
+    public static final IPv4RangeTable EMPTY = new IPv4RangeTable(IntBuffer.allocate(0), IntBuffer.allocate(0),
+            IntBuffer.allocate(0), ByteBuffer.allocate(0), 0);
+
+    private final IntBuffer starts;
+    private final IntBuffer ends;
+    private final IntBuffer providers;
+    private final ByteBuffer flags;
+    private final int size;
+
+    public IPv4RangeTable(IntBuffer starts, IntBuffer ends, IntBuffer providers, ByteBuffer flags, int size) {
+        this.starts = starts;
+        this.ends = ends;
+        this.providers = providers;
+        this.flags = flags;
+        this.size = size;
+    }
+
+    public int find(int address) {
+        int key = address ^ Integer.MIN_VALUE;
+        int low = 0;
+        int high = size - 1;
+        int candidate = -1;
+
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (starts.get(mid) <= key) {
+                candidate = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        return candidate >= 0 && key <= ends.get(candidate) ? candidate : -1;
+    }
+
+    public byte flagsAt(int index) {
+        return flags.get(index);
+    }
+
+    public int providerAt(int index) {
+        return providers.get(index);
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,69 @@
+package it.mattiolservices.mantivpn.antivpn.range;
+
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+
+// 128-bit addresses split in two longs, stored with the sign bit flipped like IPv4RangeTable
+public final class IPv6RangeTable {
+
+    public static final IPv6RangeTable EMPTY = new IPv6RangeTable(LongBuffer.allocate(0), LongBuffer.allocate(0),
+            LongBuffer.allocate(0), LongBuffer.allocate(0), IntBuffer.allocate(0), ByteBuffer.allocate(0), 0);
+
+    private final LongBuffer startHigh;
+    private final LongBuffer startLow;
+    private final LongBuffer endHigh;
+    private final LongBuffer endLow;
+    private final IntBuffer providers;
+    private final ByteBuffer flags;
+    private final int size;
+
+    public IPv6RangeTable(LongBuffer startHigh, LongBuffer startLow, LongBuffer endHigh, LongBuffer endLow,
+                          IntBuffer providers, ByteBuffer flags, int size) {
+        this.startHigh = startHigh;
+        this.startLow = startLow;
+        this.endHigh = endHigh;
+        this.endLow = endLow;
+        this.providers = providers;
+        this.flags = flags;
+        this.size = size;
+    }
+
+    public int find(long high, long low) {
+        long keyHigh = high ^ Long.MIN_VALUE;
+        long keyLow = low ^ Long.MIN_VALUE;
+        int lo = 0;
+        int hi = size - 1;
+        int candidate = -1;
+
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            if (compare(startHigh.get(mid), startLow.get(mid), keyHigh, keyLow) <= 0) {
+                candidate = mid;
+                lo = mid + 1;
+            } else {
+                hi = mid - 1;
+            }
+        }
+
+        return candidate >= 0 && compare(keyHigh, keyLow, endHigh.get(candidate), endLow.get(candidate)) <= 0
+                ? candidate : -1;
+    }
+
+    private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+        int result = Long.compare(aHigh, bHigh);
+        return result != 0 ? result : Long.compare(aLow, bLow);
+    }
+
+    public byte flagsAt(int index) {
+        return flags.get(index);
+    }
+
+    public int providerAt(int index) {
+        return providers.get(index);
+    }
+
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,178 @@
+package it.mattiolservices.mantivpn.antivpn.range;
+
+import it.mattiolservices.mantivpn.utils.AntiVPNUtils;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+// Rows of a single CSV file: start,end,flags,provider (end may be empty when start is a CIDR block)
+final class ParsedRangeFile {
+
+    final long lastModified;
+    final long fileSize;
+    final List<String> providers = new ArrayList<>();
+
+    int v4Count;
+    long[] v4Start = new long[64];
+    long[] v4End = new long[64];
+    byte[] v4Flags = new byte[64];
+    int[] v4Provider = new int[64];
+
+    int v6Count;
+    long[] v6StartHigh = new long[16];
+    long[] v6StartLow = new long[16];
+    long[] v6EndHigh = new long[16];
+    long[] v6EndLow = new long[16];
+    byte[] v6Flags = new byte[16];
+    int[] v6Provider = new int[16];
+
+    int skippedLines;
+
+    private final Map<String, Integer> providerIndexes = new HashMap<>();
+
+    private ParsedRangeFile(long lastModified, long fileSize) {
+        this.lastModified = lastModified;
+        this.fileSize = fileSize;
+    }
+
+    static ParsedRangeFile parse(Path file) throws IOException {
+        ParsedRangeFile parsed = new ParsedRangeFile(Files.getLastModifiedTime(file).toMillis(), Files.size(file));
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                if (!parsed.parseLine(line)) {
+                    parsed.skippedLines++;
+                }
+            }
+        }
+
+        return parsed;
+    }
+
+    private boolean parseLine(String line) {
+        String[] columns = line.split(",", 4);
+        if (columns.length < 3) {
+            return false;
+        }
+
+        String start = columns[0].trim();
+        String end = columns[1].trim();
+        byte flags = RangeFlags.parse(columns[2]);
+        int provider = providerIndex(columns.length > 3 ? columns[3].trim() : "unknown");
+
+        int prefix = -1;
+        int slash = start.indexOf('/');
+        if (slash > 0) {
+            try {
+                prefix = Integer.parseInt(start.substring(slash + 1));
+            } catch (NumberFormatException e) {
+                return false;
+            }
+            start = start.substring(0, slash);
+        }
+
+        if (start.indexOf(':') < 0) {
+            long first = AntiVPNUtils.parseIPv4(start);
+            if (first < 0 || prefix > 32) {
+                return false;
+            }
+
+            long last;
+            if (prefix >= 0) {
+                long mask = prefix == 0 ? 0L : (0xFFFFFFFFL << (32 - prefix)) & 0xFFFFFFFFL;
+                first &= mask;
+                last = first | (~mask & 0xFFFFFFFFL);
+            } else {
+                last = AntiVPNUtils.parseIPv4(end);
+            }
+
+            if (last < first) {
+                return false;
+            }
+            addV4(first, last, flags, provider);
+            return true;
+        }
+
+        long[] first = AntiVPNUtils.parseIPv6(start);
+        if (first == null || prefix > 128) {
+            return false;
+        }
+
+        long[] last;
+        if (prefix >= 0) {
+            long highMask = prefix >= 64 ? -1L : prefix == 0 ? 0L : -1L << (64 - prefix);
+            long lowMask = prefix <= 64 ? 0L : prefix == 128 ? -1L : -1L << (128 - prefix);
+            first = new long[]{first[0] & highMask, first[1] & lowMask};
+            last = new long[]{first[0] | ~highMask, first[1] | ~lowMask};
+        } else {
+            last = AntiVPNUtils.parseIPv6(end);
+        }
+
+        if (last == null) {
+            return false;
+        }
+        int order = Long.compareUnsigned(last[0], first[0]);
+        if (order < 0 || (order == 0 && Long.compareUnsigned(last[1], first[1]) < 0)) {
+            return false;
+        }
+        addV6(first, last, flags, provider);
+        return true;
+    }
+
+    private int providerIndex(String provider) {
+        return providerIndexes.computeIfAbsent(provider, key -> {
+            providers.add(key);
+            return providers.size() - 1;
+        });
+    }
+
+    private void addV4(long start, long end, byte flags, int provider) {
+        if (v4Count == v4Start.length) {
+            int capacity = v4Count * 2;
+            v4Start = Arrays.copyOf(v4Start, capacity);
+            v4End = Arrays.copyOf(v4End, capacity);
+            v4Flags = Arrays.copyOf(v4Flags, capacity);
+            v4Provider = Arrays.copyOf(v4Provider, capacity);
+        }
+
+        v4Start[v4Count] = start;
+        v4End[v4Count] = end;
+        v4Flags[v4Count] = flags;
+        v4Provider[v4Count] = provider;
+        v4Count++;
+    }
+
+    private void addV6(long[] start, long[] end, byte flags, int provider) {
+        if (v6Count == v6StartHigh.length) {
+            int capacity = v6Count * 2;
+            v6StartHigh = Arrays.copyOf(v6StartHigh, capacity);
+            v6StartLow = Arrays.copyOf(v6StartLow, capacity);
+            v6EndHigh = Arrays.copyOf(v6EndHigh, capacity);
+            v6EndLow = Arrays.copyOf(v6EndLow, capacity);
+            v6Flags = Arrays.copyOf(v6Flags, capacity);
+            v6Provider = Arrays.copyOf(v6Provider, capacity);
+        }
+
+        v6StartHigh[v6Count] = start[0];
+        v6StartLow[v6Count] = start[1];
+        v6EndHigh[v6Count] = end[0];
+        v6EndLow[v6Count] = end[1];
+        v6Flags[v6Count] = flags;
+        v6Provider[v6Count] = provider;
+        v6Count++;
+    }
+}
@@ -0,0 +1,33 @@
+package it.mattiolservices.mantivpn.antivpn.range;
+
+public final class RangeFlags {
+
+    public static final byte VPN = 1;
+    public static final byte PROXY = 1 << 1;
+    public static final byte TOR = 1 << 2;
+    public static final byte DATACENTER = 1 << 3;
+    public static final byte RESIDENTIAL = 1 << 4;
+
+    private RangeFlags() {
+    }
+
+    public static byte parse(String value) {
+        byte flags = 0;
+        for (String token : value.split("[|;\\s]+")) {
+            switch (token.trim().toLowerCase()) {
+                case "vpn" -> flags |= VPN;
+                case "proxy" -> flags |= PROXY;
+                case "tor" -> flags |= TOR;
+                case "datacenter", "hosting", "dc" -> flags |= DATACENTER;
+                case "residential" -> flags |= RESIDENTIAL;
+                default -> {
+                }
+            }
+        }
+        return flags;
+    }
+
+    public static boolean has(byte flags, byte flag) {
+        return (flags & flag) != 0;
+    }
+}
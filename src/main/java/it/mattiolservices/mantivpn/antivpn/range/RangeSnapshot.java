@@ -0,0 +1,6 @@
+package it.mattiolservices.mantivpn.antivpn.range;
+
+record RangeSnapshot(IPv4RangeTable v4, IPv6RangeTable v6, String[] providers) {
+
+    static final RangeSnapshot EMPTY = new RangeSnapshot(IPv4RangeTable.EMPTY, IPv6RangeTable.EMPTY, new String[0]);
+}
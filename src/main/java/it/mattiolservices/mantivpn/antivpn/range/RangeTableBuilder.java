@@ -0,0 +1,358 @@
+package it.mattiolservices.mantivpn.antivpn.range;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+final class RangeTableBuilder {
+
+    private final Path compiledDirectory;
+    private final int mmapThreshold;
+
+    RangeTableBuilder(Path compiledDirectory, int mmapThreshold) {
+        this.compiledDirectory = compiledDirectory;
+        this.mmapThreshold = mmapThreshold;
+    }
+
+    RangeSnapshot build(Collection<ParsedRangeFile> files) throws IOException {
+        List<String> providers = new ArrayList<>();
+        Map<String, Integer> providerIndexes = new HashMap<>();
+        Map<ParsedRangeFile, int[]> providerMappings = new HashMap<>();
+
+        for (ParsedRangeFile file : files) {
+            int[] mapping = new int[file.providers.size()];
+            for (int i = 0; i < mapping.length; i++) {
+                mapping[i] = providerIndexes.computeIfAbsent(file.providers.get(i), key -> {
+                    providers.add(key);
+                    return providers.size() - 1;
+                });
+            }
+            providerMappings.put(file, mapping);
+        }
+
+        IPv4RangeTable v4 = buildV4(files, providerMappings);
+        IPv6RangeTable v6 = buildV6(files, providerMappings);
+        return new RangeSnapshot(v4, v6, providers.toArray(new String[0]));
+    }
+
+    private IPv4RangeTable buildV4(Collection<ParsedRangeFile> files, Map<ParsedRangeFile, int[]> providerMappings)
+            throws IOException {
+        int total = 0;
+        for (ParsedRangeFile file : files) {
+            total += file.v4Count;
+        }
+        if (total == 0) {
+            return IPv4RangeTable.EMPTY;
+        }
+
+        long[] start = new long[total];
+        long[] end = new long[total];
+        byte[] flags = new byte[total];
+        int[] provider = new int[total];
+
+        int offset = 0;
+        for (ParsedRangeFile file : files) {
+            int[] mapping = providerMappings.get(file);
+            System.arraycopy(file.v4Start, 0, start, offset, file.v4Count);
+            System.arraycopy(file.v4End, 0, end, offset, file.v4Count);
+            System.arraycopy(file.v4Flags, 0, flags, offset, file.v4Count);
+            for (int i = 0; i < file.v4Count; i++) {
+                provider[offset + i] = mapping[file.v4Provider[i]];
+            }
+            offset += file.v4Count;
+        }
+
+        // Sort by start address: 32 bit address in the high bits, row index in the low 31 bits
+        long[] order = new long[total];
+        for (int i = 0; i < total; i++) {
+            order[i] = (start[i] << 31) | i;
+        }
+        Arrays.sort(order);
+
+        // Every start and every end + 1 is a boundary, the addresses between two boundaries are covered by the same ranges
+        long[] points = new long[total * 2];
+        int pointCount = 0;
+        for (int i = 0; i < total; i++) {
+            if (end[i] >= start[i]) {
+                points[pointCount++] = start[i];
+                points[pointCount++] = end[i] + 1;
+            }
+        }
+        Arrays.sort(points, 0, pointCount);
+
+        int[] outStart = new int[pointCount];
+        int[] outEnd = new int[pointCount];
+        int[] outProvider = new int[pointCount];
+        byte[] outFlags = new byte[pointCount];
+        int size = 0;
+        long lastEnd = -2L;
+
+        // Overlapping ranges are split into disjoint segments, each answered by the most specific range covering it
+        PriorityQueue<Integer> covering = new PriorityQueue<>(
+                Comparator.comparingLong((Integer row) -> end[row] - start[row]).thenComparingInt(row -> row));
+        int next = 0;
+        for (int i = 0; i < pointCount; i++) {
+            long point = points[i];
+            if (i > 0 && point == points[i - 1]) {
+                continue;
+            }
+
+            while (next < total && start[(int) (order[next] & 0x7FFFFFFFL)] <= point) {
+                int row = (int) (order[next++] & 0x7FFFFFFFL);
+                if (end[row] >= start[row]) {
+                    covering.add(row);
+                }
+            }
+            while (!covering.isEmpty() && end[covering.peek()] < point) {
+                covering.poll();
+            }
+            if (covering.isEmpty()) {
+                continue;
+            }
+
+            // end + 1 of the covering range is always a later boundary
+            int winner = covering.peek();
+            int following = i + 1;
+            while (points[following] == point) {
+                following++;
+            }
+            long segmentEnd = points[following] - 1;
+
+            if (size > 0 && lastEnd + 1 == point
+                    && outFlags[size - 1] == flags[winner] && outProvider[size - 1] == provider[winner]) {
+                outEnd[size - 1] = (int) segmentEnd ^ Integer.MIN_VALUE;
+            } else {
+                outStart[size] = (int) point ^ Integer.MIN_VALUE;
+                outEnd[size] = (int) segmentEnd ^ Integer.MIN_VALUE;
+                outProvider[size] = provider[winner];
+                outFlags[size] = flags[winner];
+                size++;
+            }
+            lastEnd = segmentEnd;
+        }
+
+        if (size < mmapThreshold) {
+            return new IPv4RangeTable(IntBuffer.wrap(outStart, 0, size), IntBuffer.wrap(outEnd, 0, size),
+                    IntBuffer.wrap(outProvider, 0, size), ByteBuffer.wrap(outFlags, 0, size), size);
+        }
+
+        int rows = size;
+        ByteBuffer mapped = map("ranges-v4.bin", rows * 13L);
+        mapped.slice(0, rows * 4).asIntBuffer().put(outStart, 0, rows);
+        mapped.slice(rows * 4, rows * 4).asIntBuffer().put(outEnd, 0, rows);
+        mapped.slice(rows * 8, rows * 4).asIntBuffer().put(outProvider, 0, rows);
+        mapped.slice(rows * 12, rows).put(outFlags, 0, rows);
+
+        return new IPv4RangeTable(
+                mapped.slice(0, rows * 4).asIntBuffer(),
+                mapped.slice(rows * 4, rows * 4).asIntBuffer(),
+                mapped.slice(rows * 8, rows * 4).asIntBuffer(),
+                mapped.slice(rows * 12, rows),
+                rows);
+    }
+
+    private IPv6RangeTable buildV6(Collection<ParsedRangeFile> files, Map<ParsedRangeFile, int[]> providerMappings)
+            throws IOException {
+        int total = 0;
+        for (ParsedRangeFile file : files) {
+            total += file.v6Count;
+        }
+        if (total == 0) {
+            return IPv6RangeTable.EMPTY;
+        }
+
+        long[] startHigh = new long[total];
+        long[] startLow = new long[total];
+        long[] endHigh = new long[total];
+        long[] endLow = new long[total];
+        byte[] flags = new byte[total];
+        int[] provider = new int[total];
+
+        int offset = 0;
+        for (ParsedRangeFile file : files) {
+            int[] mapping = providerMappings.get(file);
+            for (int i = 0; i < file.v6Count; i++) {
+                // Stored sign-flipped so the table can compare with plain signed comparisons
+                startHigh[offset + i] = file.v6StartHigh[i] ^ Long.MIN_VALUE;
+                startLow[offset + i] = file.v6StartLow[i] ^ Long.MIN_VALUE;
+                endHigh[offset + i] = file.v6EndHigh[i] ^ Long.MIN_VALUE;
+                endLow[offset + i] = file.v6EndLow[i] ^ Long.MIN_VALUE;
+                flags[offset + i] = file.v6Flags[i];
+                provider[offset + i] = mapping[file.v6Provider[i]];
+            }
+            offset += file.v6Count;
+        }
+
+        Integer[] order = new Integer[total];
+        for (int i = 0; i < total; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> compare(startHigh[a], startLow[a], startHigh[b], startLow[b]));
+
+        // Same boundaries as for IPv4, an end at the very last address has no end + 1 boundary
+        long[] pointHigh = new long[total * 2];
+        long[] pointLow = new long[total * 2];
+        long[] spanHigh = new long[total];
+        long[] spanLow = new long[total];
+        int pointCount = 0;
+        for (int i = 0; i < total; i++) {
+            if (compare(endHigh[i], endLow[i], startHigh[i], startLow[i]) < 0) {
+                continue;
+            }
+
+            pointHigh[pointCount] = startHigh[i];
+            pointLow[pointCount++] = startLow[i];
+            if (endHigh[i] != Long.MAX_VALUE || endLow[i] != Long.MAX_VALUE) {
+                boolean carry = endLow[i] == Long.MAX_VALUE;
+                pointHigh[pointCount] = carry ? endHigh[i] + 1 : endHigh[i];
+                pointLow[pointCount++] = carry ? Long.MIN_VALUE : endLow[i] + 1;
+            }
+
+            // Sign-flipping both sides keeps the difference, only the borrow needs an unsigned compare
+            spanLow[i] = endLow[i] - startLow[i];
+            spanHigh[i] = endHigh[i] - startHigh[i] - (Long.compare(endLow[i], startLow[i]) < 0 ? 1 : 0);
+        }
+
+        Integer[] pointOrder = new Integer[pointCount];
+        for (int i = 0; i < pointCount; i++) {
+            pointOrder[i] = i;
+        }
+        Arrays.sort(pointOrder, (a, b) -> compare(pointHigh[a], pointLow[a], pointHigh[b], pointLow[b]));
+
+        long[] outStartHigh = new long[pointCount];
+        long[] outStartLow = new long[pointCount];
+        long[] outEndHigh = new long[pointCount];
+        long[] outEndLow = new long[pointCount];
+        int[] outProvider = new int[pointCount];
+        byte[] outFlags = new byte[pointCount];
+        int size = 0;
+        long lastEndHigh = 0L;
+        long lastEndLow = 0L;
+
+        PriorityQueue<Integer> covering = new PriorityQueue<>((a, b) -> {
+            int result = Long.compareUnsigned(spanHigh[a], spanHigh[b]);
+            if (result == 0) {
+                result = Long.compareUnsigned(spanLow[a], spanLow[b]);
+            }
+            return result != 0 ? result : Integer.compare(a, b);
+        });
+        int next = 0;
+        for (int i = 0; i < pointCount; i++) {
+            long high = pointHigh[pointOrder[i]];
+            long low = pointLow[pointOrder[i]];
+            if (i > 0 && high == pointHigh[pointOrder[i - 1]] && low == pointLow[pointOrder[i - 1]]) {
+                continue;
+            }
+
+            while (next < total && compare(startHigh[order[next]], startLow[order[next]], high, low) <= 0) {
+                int row = order[next++];
+                if (compare(endHigh[row], endLow[row], startHigh[row], startLow[row]) >= 0) {
+                    covering.add(row);
+                }
+            }
+            while (!covering.isEmpty() && compare(endHigh[covering.peek()], endLow[covering.peek()], high, low) < 0) {
+                covering.poll();
+            }
+            if (covering.isEmpty()) {
+                continue;
+            }
+
+            int winner = covering.peek();
+            int following = i + 1;
+            while (following < pointCount && pointHigh[pointOrder[following]] == high && pointLow[pointOrder[following]] == low) {
+                following++;
+            }
+
+            // The segment ends right before the next boundary, or at the last address when there is none
+            long segmentEndHigh = Long.MAX_VALUE;
+            long segmentEndLow = Long.MAX_VALUE;
+            if (following < pointCount) {
+                long nextHigh = pointHigh[pointOrder[following]];
+                long nextLow = pointLow[pointOrder[following]];
+                boolean borrow = nextLow == Long.MIN_VALUE;
+                segmentEndHigh = borrow ? nextHigh - 1 : nextHigh;
+                segmentEndLow = borrow ? Long.MAX_VALUE : nextLow - 1;
+            }
+
+            boolean adjacent = size > 0 && (lastEndLow == Long.MAX_VALUE
+                    ? lastEndHigh + 1 == high && low == Long.MIN_VALUE
+                    : lastEndHigh == high && lastEndLow + 1 == low);
+            if (adjacent && outFlags[size - 1] == flags[winner] && outProvider[size - 1] == provider[winner]) {
+                outEndHigh[size - 1] = segmentEndHigh;
+                outEndLow[size - 1] = segmentEndLow;
+            } else {
+                outStartHigh[size] = high;
+                outStartLow[size] = low;
+                outEndHigh[size] = segmentEndHigh;
+                outEndLow[size] = segmentEndLow;
+                outProvider[size] = provider[winner];
+                outFlags[size] = flags[winner];
+                size++;
+            }
+            lastEndHigh = segmentEndHigh;
+            lastEndLow = segmentEndLow;
+        }
+
+        if (size < mmapThreshold) {
+            return new IPv6RangeTable(LongBuffer.wrap(outStartHigh, 0, size), LongBuffer.wrap(outStartLow, 0, size),
+                    LongBuffer.wrap(outEndHigh, 0, size), LongBuffer.wrap(outEndLow, 0, size),
+                    IntBuffer.wrap(outProvider, 0, size), ByteBuffer.wrap(outFlags, 0, size), size);
+        }
+
+        int rows = size;
+        ByteBuffer mapped = map("ranges-v6.bin", rows * 37L);
+        mapped.slice(0, rows * 8).asLongBuffer().put(outStartHigh, 0, rows);
+        mapped.slice(rows * 8, rows * 8).asLongBuffer().put(outStartLow, 0, rows);
+        mapped.slice(rows * 16, rows * 8).asLongBuffer().put(outEndHigh, 0, rows);
+        mapped.slice(rows * 24, rows * 8).asLongBuffer().put(outEndLow, 0, rows);
+        mapped.slice(rows * 32, rows * 4).asIntBuffer().put(outProvider, 0, rows);
+        mapped.slice(rows * 36, rows).put(outFlags, 0, rows);
+
+        return new IPv6RangeTable(
+                mapped.slice(0, rows * 8).asLongBuffer(),
+                mapped.slice(rows * 8, rows * 8).asLongBuffer(),
+                mapped.slice(rows * 16, rows * 8).asLongBuffer(),
+                mapped.slice(rows * 24, rows * 8).asLongBuffer(),
+                mapped.slice(rows * 32, rows * 4).asIntBuffer(),
+                mapped.slice(rows * 36, rows),
+                rows);
+    }
+
+    private static int compare(long aHigh, long aLow, long bHigh, long bLow) {
+        int result = Long.compare(aHigh, bHigh);
+        return result != 0 ? result : Long.compare(aLow, bLow);
+    }
+
+    // Each build maps a fresh file, the previous mapping stays valid until the old snapshot is collected
+    private ByteBuffer map(String name, long length) throws IOException {
+        Files.createDirectories(compiledDirectory);
+        Path target = compiledDirectory.resolve(name + "." + System.nanoTime());
+
+        try (var stale = Files.newDirectoryStream(compiledDirectory, name + ".*")) {
+            for (Path path : stale) {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ignored) {
+                }
+            }
+        }
+
+        try (FileChannel channel = FileChannel.open(target, StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, length);
+        }
+    }
+}
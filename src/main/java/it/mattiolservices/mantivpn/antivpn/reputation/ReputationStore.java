@@ -0,0 +1,158 @@
+package it.mattiolservices.mantivpn.antivpn.reputation;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.utils.AntiVPNUtils;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class ReputationStore {
+
+    private static final int MAGIC = 0x4D525054;
+    // Version 1 keyed pairs on the username, those entries are dropped
+    private static final int VERSION = 2;
+
+    private final Path file;
+    private final ScheduledExecutorService persistExecutor;
+    private ReputationTable table;
+
+    public ReputationStore() {
+        this.file = MAntiVPN.getInstance().getDataDirectory().resolve("reputation.dat");
+        this.table = new ReputationTable(1024);
+        this.persistExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPN-Reputation");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.persistExecutor.execute(this::load);
+        this.persistExecutor.scheduleWithFixedDelay(this::save, 5, 5, TimeUnit.MINUTES);
+    }
+
+    // Trusted pairs have a long enough clean history to skip the API on login
+    public synchronized boolean isTrusted(UUID uniqueId, String ip) {
+        if (uniqueId == null) {
+            return false;
+        }
+
+        int slot = table.find(pairKey(uniqueId, ip));
+        if (slot < 0 || table.verdict(slot) != ReputationTable.VERDICT_CLEAN) {
+            return false;
+        }
+
+        ConfigManager config = MAntiVPN.getConfigManager();
+        long now = System.currentTimeMillis();
+        return table.cleanLogins(slot) >= config.getConfig().getInt("reputation.min-clean-logins", 5)
+                && now - table.firstSeen(slot) >= TimeUnit.HOURS.toMillis(config.getConfig().getLong("reputation.min-age-hours", 72L))
+                && now - table.lastSeen(slot) <= TimeUnit.DAYS.toMillis(config.getConfig().getLong("reputation.retention-days", 30L));
+    }
+
+    // Seen before with a clean last verdict, however short the history
+    public synchronized boolean isKnown(UUID uniqueId, String ip) {
+        if (uniqueId == null) {
+            return false;
+        }
+
+        int slot = table.find(pairKey(uniqueId, ip));
+        return slot >= 0 && table.verdict(slot) == ReputationTable.VERDICT_CLEAN;
+    }
+
+    public synchronized void recordVerdict(UUID uniqueId, String ip, boolean clean) {
+        if (uniqueId == null) {
+            return;
+        }
+
+        long key = pairKey(uniqueId, ip);
+        if (table.find(key) < 0 && table.size() >= MAntiVPN.getConfigManager().getConfig().getInt("reputation.max-entries", 200000)) {
+            // Full tables only keep updating known pairs, stale ones are dropped on the next save
+            return;
+        }
+        table.record(key, System.currentTimeMillis(), clean);
+    }
+
+    public synchronized int size() {
+        return table.size();
+    }
+
+    private void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                log.warn("[!] Ignoring {} written by an unsupported version", file.getFileName());
+                return;
+            }
+
+            ReputationTable loaded = ReputationTable.read(in);
+            synchronized (this) {
+                // Logins recorded before the file finished loading are lost, they are few and only delay trust
+                this.table = loaded;
+            }
+            log.info("[/] Loaded {} account reputation entries", loaded.size());
+        } catch (IOException e) {
+            log.error("[!] Failed to load account reputation from {}: {}", file.getFileName(), e.getMessage());
+        }
+    }
+
+    public void save() {
+        long cutoff = System.currentTimeMillis()
+                - TimeUnit.DAYS.toMillis(MAntiVPN.getConfigManager().getConfig().getLong("reputation.retention-days", 30L));
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+        try {
+            Files.createDirectories(file.getParent());
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                synchronized (this) {
+                    table.prune(cutoff);
+                    table.write(out);
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("[!] Failed to save account reputation to {}: {}", file.getFileName(), e.getMessage());
+        }
+    }
+
+    // FNV-1a over the account UUID and the IP's cache key, so IPv6 pairs follow the configured prefix
+    private static long pairKey(UUID uniqueId, String ip) {
+        String pair = uniqueId.toString() + '|' + AntiVPNUtils.cacheKey(ip);
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : pair.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xFF;
+            hash *= 0x100000001b3L;
+        }
+        return hash == 0L ? 1L : hash;
+    }
+
+    public void shutdown() {
+        persistExecutor.shutdown();
+        try {
+            if (!persistExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                persistExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            persistExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        save();
+    }
+}
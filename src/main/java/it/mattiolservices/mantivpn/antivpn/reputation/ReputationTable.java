@@ -0,0 +1,182 @@
+package it.mattiolservices.mantivpn.antivpn.reputation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+// Parallel primitive arrays indexed by an open addressing slot, 0 marks an empty key
+final class ReputationTable {
+
+    static final byte VERDICT_CLEAN = 1;
+    static final byte VERDICT_FLAGGED = 2;
+
+    private long[] keys;
+    private long[] firstSeen;
+    private long[] lastSeen;
+    private int[] cleanLogins;
+    private byte[] verdicts;
+    private int mask;
+    private int size;
+
+    ReputationTable(int expectedSize) {
+        allocate(Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    // Returns the slot holding the key, or -1
+    int find(long key) {
+        int slot = mix(key) & mask;
+        long current;
+        while ((current = keys[slot]) != 0L) {
+            if (current == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return -1;
+    }
+
+    long firstSeen(int slot) {
+        return firstSeen[slot];
+    }
+
+    long lastSeen(int slot) {
+        return lastSeen[slot];
+    }
+
+    int cleanLogins(int slot) {
+        return cleanLogins[slot];
+    }
+
+    byte verdict(int slot) {
+        return verdicts[slot];
+    }
+
+    void record(long key, long now, boolean clean) {
+        int slot = find(key);
+        if (slot < 0) {
+            slot = insert(key, now, now, 0, (byte) 0);
+        }
+
+        lastSeen[slot] = now;
+        if (clean) {
+            cleanLogins[slot]++;
+            verdicts[slot] = VERDICT_CLEAN;
+        } else {
+            // A single bad verdict resets the history
+            cleanLogins[slot] = 0;
+            firstSeen[slot] = now;
+            verdicts[slot] = VERDICT_FLAGGED;
+        }
+    }
+
+    // Rebuilds the table without pairs last seen before the cutoff
+    int prune(long cutoff) {
+        long[] oldKeys = keys;
+        long[] oldFirst = firstSeen;
+        long[] oldLast = lastSeen;
+        int[] oldClean = cleanLogins;
+        byte[] oldVerdicts = verdicts;
+        int before = size;
+
+        int live = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0L && oldLast[i] >= cutoff) {
+                live++;
+            }
+        }
+
+        allocate(Integer.highestOneBit(Math.max(4, live * 2 - 1)) << 1);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0L && oldLast[i] >= cutoff) {
+                insert(oldKeys[i], oldFirst[i], oldLast[i], oldClean[i], oldVerdicts[i]);
+            }
+        }
+        return before - size;
+    }
+
+    void write(DataOutput out) throws IOException {
+        out.writeInt(size);
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i] != 0L) {
+                out.writeLong(keys[i]);
+                out.writeLong(firstSeen[i]);
+                out.writeLong(lastSeen[i]);
+                out.writeInt(cleanLogins[i]);
+                out.writeByte(verdicts[i]);
+            }
+        }
+    }
+
+    static ReputationTable read(DataInput in) throws IOException {
+        int count = in.readInt();
+        if (count < 0) {
+            throw new IOException("Negative entry count");
+        }
+
+        ReputationTable table = new ReputationTable(count);
+        for (int i = 0; i < count; i++) {
+            long key = in.readLong();
+            long first = in.readLong();
+            long last = in.readLong();
+            int clean = in.readInt();
+            byte verdict = in.readByte();
+            if (key != 0L && table.find(key) < 0) {
+                table.insert(key, first, last, clean, verdict);
+            }
+        }
+        return table;
+    }
+
+    private int insert(long key, long first, long last, int clean, byte verdict) {
+        if ((size + 1) * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0L) {
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        firstSeen[slot] = first;
+        lastSeen[slot] = last;
+        cleanLogins[slot] = clean;
+        verdicts[slot] = verdict;
+        size++;
+        return slot;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        long[] oldFirst = firstSeen;
+        long[] oldLast = lastSeen;
+        int[] oldClean = cleanLogins;
+        byte[] oldVerdicts = verdicts;
+
+        allocate(capacity);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != 0L) {
+                insert(oldKeys[i], oldFirst[i], oldLast[i], oldClean[i], oldVerdicts[i]);
+            }
+        }
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        firstSeen = new long[capacity];
+        lastSeen = new long[capacity];
+        cleanLogins = new int[capacity];
+        verdicts = new byte[capacity];
+        mask = capacity - 1;
+        size = 0;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+}
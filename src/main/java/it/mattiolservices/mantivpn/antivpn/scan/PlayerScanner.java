@@ -0,0 +1,177 @@
+package it.mattiolservices.mantivpn.antivpn.scan;
+
+import com.velocitypowered.api.command.CommandSource;
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.antivpn.lookup.IPLookupService;
+import it.mattiolservices.mantivpn.antivpn.quota.LookupPriority;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.utils.CC;
+import lombok.extern.slf4j.Slf4j;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Slf4j
+public class PlayerScanner {
+
+    private final ProxyServer proxyServer;
+    private final IPLookupService lookupService;
+    private final ScheduledExecutorService scanExecutor;
+    private final AtomicBoolean running;
+
+    public PlayerScanner(ProxyServer proxyServer, IPLookupService lookupService) {
+        this.proxyServer = proxyServer;
+        this.lookupService = lookupService;
+        this.scanExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPN-PlayerScan");
+            t.setDaemon(true);
+            return t;
+        });
+        this.running = new AtomicBoolean(false);
+    }
+
+    public boolean isRunning() {
+        return running.get();
+    }
+
+    public boolean startScan(CommandSource sender) {
+        if (!running.compareAndSet(false, true)) {
+            return false;
+        }
+
+        // Players sharing an IP cost a single lookup
+        Map<String, List<String>> playersByIP = new LinkedHashMap<>();
+        for (Player player : proxyServer.getAllPlayers()) {
+            InetSocketAddress address = player.getRemoteAddress();
+            if (address == null || address.getAddress() == null) {
+                continue;
+            }
+            playersByIP.computeIfAbsent(address.getAddress().getHostAddress(), ip -> new ArrayList<>())
+                    .add(player.getUsername());
+        }
+
+        new ScanJob(sender, playersByIP).start();
+        return true;
+    }
+
+    public void shutdown() {
+        scanExecutor.shutdownNow();
+    }
+
+    private final class ScanJob {
+
+        private final CommandSource sender;
+        private final Map<String, List<String>> playersByIP;
+        private final Queue<String> pendingIPs;
+        private final AtomicInteger inFlight = new AtomicInteger();
+        private final AtomicInteger completed = new AtomicInteger();
+        private final AtomicInteger failed = new AtomicInteger();
+        private final Queue<String> flaggedPlayers = new ConcurrentLinkedQueue<>();
+        private final int total;
+        private final int parallelism;
+        private final int progressEvery;
+        private final long startMillis;
+        private volatile ScheduledFuture<?> task;
+
+        private ScanJob(CommandSource sender, Map<String, List<String>> playersByIP) {
+            ConfigManager config = MAntiVPN.getConfigManager();
+            this.sender = sender;
+            this.playersByIP = playersByIP;
+            this.pendingIPs = new ConcurrentLinkedQueue<>(playersByIP.keySet());
+            this.total = playersByIP.size();
+            this.parallelism = Math.max(1, config.getConfig().getInt("scan.parallelism", 4));
+            this.progressEvery = Math.max(1, config.getConfig().getInt("scan.progress-every", 10));
+            this.startMillis = System.currentTimeMillis();
+        }
+
+        private void start() {
+            sender.sendMessage(CC.translate(message("antivpn.scan.started")
+                    .replace("%players%", String.valueOf(playersByIP.values().stream().mapToInt(List::size).sum()))
+                    .replace("%ips%", String.valueOf(total))));
+
+            if (total == 0) {
+                finish();
+                return;
+            }
+
+            int ratePerSecond = Math.max(1, MAntiVPN.getConfigManager().getConfig().getInt("scan.rate-per-second", 5));
+            task = scanExecutor.scheduleAtFixedRate(this::dispatchNext, 0, 1_000_000L / ratePerSecond, TimeUnit.MICROSECONDS);
+        }
+
+        // One lookup per tick keeps the scan under the rate budget, the in-flight cap bounds parallelism
+        private void dispatchNext() {
+            if (inFlight.get() >= parallelism) {
+                return;
+            }
+
+            String ip = pendingIPs.poll();
+            if (ip == null) {
+                ScheduledFuture<?> current = task;
+                if (completed.get() == total && current != null) {
+                    current.cancel(false);
+                }
+                return;
+            }
+
+            inFlight.incrementAndGet();
+            lookupService.checkRemote(ip, LookupPriority.LOW).whenComplete((result, throwable) -> {
+                if (throwable != null) {
+                    failed.incrementAndGet();
+                } else if (result.isSuspicious(MAntiVPN.getConfigManager())) {
+                    for (String player : playersByIP.get(ip)) {
+                        flaggedPlayers.add(player + " (" + ip + ")");
+                    }
+                }
+
+                inFlight.decrementAndGet();
+                int done = completed.incrementAndGet();
+                if (done == total) {
+                    finish();
+                } else if (done % progressEvery == 0) {
+                    sender.sendMessage(CC.translate(message("antivpn.scan.progress")
+                            .replace("%done%", String.valueOf(done))
+                            .replace("%total%", String.valueOf(total))
+                            .replace("%flagged%", String.valueOf(flaggedPlayers.size()))));
+                }
+            });
+        }
+
+        private void finish() {
+            ScheduledFuture<?> current = task;
+            if (current != null) {
+                current.cancel(false);
+            }
+
+            sender.sendMessage(CC.translate(message("antivpn.scan.summary")
+                    .replace("%total%", String.valueOf(total))
+                    .replace("%flagged%", String.valueOf(flaggedPlayers.size()))
+                    .replace("%failed%", String.valueOf(failed.get()))
+                    .replace("%seconds%", String.format("%.1f", (System.currentTimeMillis() - startMillis) / 1000.0))));
+
+            for (String flagged : flaggedPlayers) {
+                sender.sendMessage(CC.translate(message("antivpn.scan.flagged").replace("%player%", flagged)));
+            }
+
+            log.info("[!] Player scan finished: {} IPs checked, {} players flagged, {} failed",
+                    total, flaggedPlayers.size(), failed.get());
+            running.set(false);
+        }
+
+        private String message(String key) {
+            return MAntiVPN.getConfigManager().getMessages().getString(key);
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package it.mattiolservices.mantivpn.antivpn.sweeper;
+
+import com.velocitypowered.api.proxy.Player;
+import com.velocitypowered.api.proxy.ProxyServer;
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.alert.manager.AlertManager;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.lookup.IPLookupService;
+import it.mattiolservices.mantivpn.antivpn.lookup.LookupResult;
+import it.mattiolservices.mantivpn.antivpn.quota.LookupPriority;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import lombok.extern.slf4j.Slf4j;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class ReevaluationSweeper {
+
+    private final ProxyServer proxyServer;
+    private final IPLookupService lookupService;
+    private final AlertManager alertManager;
+    private final ScheduledExecutorService sweepExecutor;
+    private final ArrayDeque<UUID> rotation;
+    // Suspicious verdicts are never cached, so flagged players are remembered here until the verdict would expire
+    private final Map<UUID, FlaggedVerdict> flagged;
+    private final long tickSeconds;
+
+    public ReevaluationSweeper(ProxyServer proxyServer, IPLookupService lookupService, AlertManager alertManager) {
+        this.proxyServer = proxyServer;
+        this.lookupService = lookupService;
+        this.alertManager = alertManager;
+        this.rotation = new ArrayDeque<>();
+        this.flagged = new ConcurrentHashMap<>();
+        this.tickSeconds = Math.max(1L, MAntiVPN.getConfigManager().getConfig().getLong("reevaluation.tick-seconds", 5L));
+        this.sweepExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPN-Reevaluation");
+            t.setDaemon(true);
+            return t;
+        });
+        this.sweepExecutor.scheduleWithFixedDelay(this::sweep, tickSeconds, tickSeconds, TimeUnit.SECONDS);
+    }
+
+    private void sweep() {
+        try {
+            ConfigManager config = MAntiVPN.getConfigManager();
+            if (!config.getConfig().getBoolean("reevaluation.enabled", true)) {
+                return;
+            }
+
+            if (rotation.isEmpty()) {
+                proxyServer.getAllPlayers().forEach(player -> rotation.add(player.getUniqueId()));
+                Set<UUID> online = Set.copyOf(rotation);
+                flagged.keySet().retainAll(online);
+            }
+
+            // Visit every online player once per cache lifetime, a slice per tick
+            long ttlSeconds = Math.max(1L, TimeUnit.HOURS.toSeconds(config.getConfig().getInt("antivpn.cachetime")));
+            int online = proxyServer.getPlayerCount();
+            int batchSize = (int) Math.max(1L, (online * tickSeconds + ttlSeconds - 1) / ttlSeconds);
+            int lookupBudget = Math.max(1, config.getConfig().getInt("reevaluation.max-lookups-per-tick", 5));
+
+            for (int i = 0; i < batchSize && lookupBudget > 0 && !rotation.isEmpty(); i++) {
+                Optional<Player> player = proxyServer.getPlayer(rotation.poll());
+                if (player.isEmpty()) {
+                    continue;
+                }
+
+                if (reevaluate(player.get(), config)) {
+                    lookupBudget--;
+                }
+            }
+        } catch (Exception e) {
+            log.error("[!] Error during player re-evaluation: {}", e.getMessage());
+        }
+    }
+
+    // Returns true when a remote lookup was started
+    private boolean reevaluate(Player player, ConfigManager config) {
+        InetSocketAddress address = player.getRemoteAddress();
+        if (address == null || address.getAddress() == null) {
+            return false;
+        }
+
+        String ip = address.getAddress().getHostAddress();
+        if (config.getConfig().getStringList("whitelist").contains(ip) || lookupService.getAntiVPNCache().isCached(ip)) {
+            return false;
+        }
+
+        FlaggedVerdict previous = flagged.get(player.getUniqueId());
+        if (previous != null && previous.ip().equals(ip) && previous.expiresAtMillis() > System.currentTimeMillis()) {
+            return false;
+        }
+
+        LookupResult local = lookupService.lookupLocal(ip);
+        if (local != null) {
+            enforce(player, ip, local.result());
+            return false;
+        }
+
+        lookupService.checkRemote(ip, LookupPriority.LOW).thenAccept(result -> enforce(player, ip, result));
+        return true;
+    }
+
+    // Staff are alerted when a player is first flagged or the verdict changes, not on every re-check
+    private void enforce(Player player, String ip, IPCheckResult result) {
+        ConfigManager config = MAntiVPN.getConfigManager();
+        if (!result.isSuspicious(config)) {
+            flagged.remove(player.getUniqueId());
+            return;
+        }
+        if (!player.isActive()) {
+            return;
+        }
+
+        long ttlMillis = TimeUnit.HOURS.toMillis(config.getConfig().getInt("antivpn.cachetime"));
+        FlaggedVerdict verdict = new FlaggedVerdict(ip, FlaggedVerdict.flagsOf(result), System.currentTimeMillis() + ttlMillis);
+        FlaggedVerdict previous = flagged.put(player.getUniqueId(), verdict);
+        if (previous != null && previous.ip().equals(ip) && previous.flags() == verdict.flags()) {
+            return;
+        }
+
+        alertManager.sendAlert(player.getUsername(), ip, result);
+
+        if (!config.getConfig().getBoolean("reevaluation.disconnect", false)) {
+            return;
+        }
+
+        String reason = MAntiVPN.getInstance().getJoinListener().buildKickReason(result, config);
+        Component kickMessage = LegacyComponentSerializer.legacyAmpersand()
+                .deserialize(config.getMessages().getString("General.kick-message").replace("%result%", reason));
+        player.disconnect(kickMessage);
+
+        if (config.getConfig().getBoolean("Debug.enable")) {
+            log.info("[!] Disconnected player {} after re-evaluation (IP: {}): {}", player.getUsername(), ip, reason);
+        }
+    }
+
+    private record FlaggedVerdict(String ip, int flags, long expiresAtMillis) {
+
+        private static int flagsOf(IPCheckResult result) {
+            return (result.vpn() ? 1 : 0)
+                    | (result.proxy() ? 1 << 1 : 0)
+                    | (result.tor() ? 1 << 2 : 0)
+                    | (result.datacenter() ? 1 << 3 : 0)
+                    | (result.residential() ? 1 << 4 : 0);
+        }
+    }
+
+    public void shutdown() {
+        sweepExecutor.shutdown();
+        try {
+            if (!sweepExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                sweepExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            sweepExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+package it.mattiolservices.mantivpn.antivpn.tor;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.http.HttpTransport;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class TorExitIndex {
+
+    private final Path dataDirectory;
+    private final String source;
+    private final Path cacheFile;
+    private final OkHttpClient httpClient;
+    private final ScheduledExecutorService refreshExecutor;
+    private volatile TorExitList exits;
+
+    public TorExitIndex(HttpTransport httpTransport) {
+        this(MAntiVPN.getInstance().getDataDirectory(),
+                MAntiVPN.getConfigManager().getConfig().getString("tor.source", "https://check.torproject.org/torbulkexitlist"),
+                httpTransport.client(TimeUnit.SECONDS.toMillis(10), TimeUnit.SECONDS.toMillis(30)));
+
+        ConfigManager config = MAntiVPN.getConfigManager();
+        this.refreshExecutor.execute(this::loadCachedList);
+        long refreshMinutes = Math.max(5L, config.getConfig().getLong("tor.refresh-minutes", 60L));
+        this.refreshExecutor.scheduleWithFixedDelay(this::refresh, 0, refreshMinutes, TimeUnit.MINUTES);
+    }
+
+    // Nothing is loaded until loadCachedList() or refresh() runs, tests call them directly
+    TorExitIndex(Path dataDirectory, String source, OkHttpClient httpClient) {
+        this.dataDirectory = dataDirectory;
+        this.source = source;
+        this.cacheFile = dataDirectory.resolve("tor-exits.txt");
+        this.httpClient = httpClient;
+        this.exits = TorExitList.EMPTY;
+        this.refreshExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPN-TorExitIndex");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    public boolean isExitNode(String ip) {
+        return exits.contains(ip);
+    }
+
+    public IPCheckResult lookup(String ip) {
+        if (!isExitNode(ip)) {
+            return null;
+        }
+        return new IPCheckResult(ip, false, false, true, false, false, 0.0, "unknown", "Tor");
+    }
+
+    public int size() {
+        return exits.size();
+    }
+
+    // Only runs on the refresh executor, the list saved by the last download covers the first refresh
+    void loadCachedList() {
+        if (exits.size() > 0 || !Files.exists(cacheFile)) {
+            return;
+        }
+
+        try {
+            swap(Files.readString(cacheFile, StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            log.warn("[!] Failed to read cached Tor exit list: {}", e.getMessage());
+        }
+    }
+
+    void refresh() {
+        try {
+            String content;
+            if (source.startsWith("http://") || source.startsWith("https://")) {
+                content = download();
+                Path temp = cacheFile.resolveSibling(cacheFile.getFileName() + ".tmp");
+                Files.createDirectories(cacheFile.getParent());
+                Files.writeString(temp, content, StandardCharsets.UTF_8);
+                Files.move(temp, cacheFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } else {
+                content = Files.readString(dataDirectory.resolve(source), StandardCharsets.UTF_8);
+            }
+
+            swap(content);
+        } catch (Exception e) {
+            log.warn("[!] Failed to refresh Tor exit list from {}: {}", source, e.getMessage());
+        }
+    }
+
+    private String download() throws IOException {
+        Request request = new Request.Builder()
+                .url(source)
+                .addHeader("User-Agent", "MAntiVPN-TorExitIndex/1.0")
+                .build();
+
+        try (Response response = httpClient.newCall(request).execute()) {
+            if (!response.isSuccessful() || response.body() == null) {
+                throw new IOException("HTTP " + response.code());
+            }
+            return response.body().string();
+        }
+    }
+
+    // Builds the next list off to the side and swaps it in, lookups never see a partially filled set
+    private void swap(String content) throws IOException {
+        TorExitList next = TorExitList.parse(content);
+        if (next.skippedLines() > 0) {
+            log.warn("[!] Skipped {} invalid lines in the Tor exit list", next.skippedLines());
+        }
+        this.exits = next;
+        log.debug("[!] Loaded {} Tor exit addresses", next.size());
+    }
+
+    public void shutdown() {
+        refreshExecutor.shutdown();
+        try {
+            if (!refreshExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                refreshExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            refreshExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
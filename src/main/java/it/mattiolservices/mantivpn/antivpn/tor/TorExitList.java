@@ -0,0 +1,87 @@
+package it.mattiolservices.mantivpn.antivpn.tor;
+
+import it.mattiolservices.mantivpn.utils.AntiVPNUtils;
+import it.mattiolservices.mantivpn.utils.collection.IntHashSet;
+import it.mattiolservices.mantivpn.utils.collection.LongPairHashSet;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.StringReader;
+
+// One loaded exit list, never modified once parsed so it can be swapped in whole
+final class TorExitList {
+
+    static final TorExitList EMPTY = new TorExitList(new IntHashSet(0), new LongPairHashSet(0), 0);
+
+    private final IntHashSet v4;
+    private final LongPairHashSet v6;
+    private final int skippedLines;
+
+    private TorExitList(IntHashSet v4, LongPairHashSet v6, int skippedLines) {
+        this.v4 = v4;
+        this.v6 = v6;
+        this.skippedLines = skippedLines;
+    }
+
+    // One address per line, blank lines and # comments are ignored, anything else unreadable is counted and skipped
+    static TorExitList parse(String content) throws IOException {
+        IntHashSet v4 = new IntHashSet(2048);
+        LongPairHashSet v6 = new LongPairHashSet(64);
+        int skipped = 0;
+
+        try (BufferedReader reader = new BufferedReader(new StringReader(content))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+
+                // Also accept the exit-addresses format: "ExitAddress <ip> <date> <time>", between the relay's other fields
+                if (line.startsWith("ExitAddress ")) {
+                    String[] parts = line.split(" ");
+                    line = parts.length > 1 ? parts[1] : "";
+                } else if (line.startsWith("ExitNode ") || line.startsWith("Published ") || line.startsWith("LastStatus ")) {
+                    continue;
+                }
+
+                long address = AntiVPNUtils.parseIPv4(line);
+                if (address >= 0) {
+                    v4.add((int) address);
+                    continue;
+                }
+
+                long[] address6 = AntiVPNUtils.parseIPv6(line);
+                if (address6 != null) {
+                    v6.add(address6[0], address6[1]);
+                } else {
+                    skipped++;
+                }
+            }
+        }
+
+        return new TorExitList(v4, v6, skipped);
+    }
+
+    boolean contains(String ip) {
+        long address = AntiVPNUtils.parseIPv4(ip);
+        if (address >= 0) {
+            return v4.contains((int) address);
+        }
+
+        if (v6.size() == 0) {
+            return false;
+        }
+
+        long[] address6 = AntiVPNUtils.parseIPv6(ip);
+        return address6 != null && v6.contains(address6[0], address6[1]);
+    }
+
+    int size() {
+        return v4.size() + v6.size();
+    }
+
+    int skippedLines() {
+        return skippedLines;
+    }
+}
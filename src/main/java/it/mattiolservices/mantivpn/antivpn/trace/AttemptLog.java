@@ -0,0 +1,44 @@
+package it.mattiolservices.mantivpn.antivpn.trace;
+
+// Filled by the thread running an API request, read by the logins waiting on it
+// Status is the HTTP code of the attempt, 0 when no response came back
+public final class AttemptLog {
+
+    public static final int MAX_ATTEMPTS = 8;
+
+    private final long[] nanos = new long[MAX_ATTEMPTS];
+    private final int[] statuses = new int[MAX_ATTEMPTS];
+    private volatile String thread;
+    private volatile int count;
+
+    // Only ever called by the single thread running the request
+    public void record(long attemptNanos, int status) {
+        int index = count;
+        if (index >= MAX_ATTEMPTS) {
+            return;
+        }
+
+        nanos[index] = attemptNanos;
+        statuses[index] = status;
+        if (index == 0) {
+            thread = Thread.currentThread().getName();
+        }
+        count = index + 1;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public long nanosAt(int index) {
+        return nanos[index];
+    }
+
+    public int statusAt(int index) {
+        return statuses[index];
+    }
+
+    public String thread() {
+        return thread;
+    }
+}
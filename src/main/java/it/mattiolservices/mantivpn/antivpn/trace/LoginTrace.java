@@ -0,0 +1,94 @@
+package it.mattiolservices.mantivpn.antivpn.trace;
+
+import lombok.Getter;
+
+// Mutable on purpose, the same instances are refilled for every login so tracing never allocates
+@Getter
+public final class LoginTrace {
+
+    public static final int MAX_STAGES = 16;
+
+    private long timestamp;
+    private long startNanos;
+    private long totalNanos;
+    private String username;
+    private String ip;
+    private String decision;
+    private String source;
+    private String thread;
+    private String apiThread;
+    private long networkNanos;
+    private int stageCount;
+    private int attemptCount;
+    private final String[] stageNames = new String[MAX_STAGES];
+    private final long[] stageNanos = new long[MAX_STAGES];
+    private final long[] attemptNanos = new long[AttemptLog.MAX_ATTEMPTS];
+    private final int[] attemptStatuses = new int[AttemptLog.MAX_ATTEMPTS];
+    boolean active;
+
+    void begin(String username, String ip, long startNanos) {
+        this.username = username;
+        this.ip = ip;
+        this.startNanos = startNanos;
+        this.timestamp = System.currentTimeMillis();
+        this.totalNanos = 0L;
+        this.decision = null;
+        this.source = null;
+        this.thread = null;
+        this.apiThread = null;
+        this.networkNanos = 0L;
+        this.stageCount = 0;
+        this.attemptCount = 0;
+        this.active = true;
+    }
+
+    public void stage(String name, long nanos) {
+        if (stageCount < MAX_STAGES) {
+            stageNames[stageCount] = name;
+            stageNanos[stageCount] = nanos;
+            stageCount++;
+        }
+    }
+
+    // Time the login waited on the API, plus the attempts the request had made by then
+    public void network(long waitNanos, AttemptLog attempts) {
+        networkNanos += waitNanos;
+        if (attempts == null) {
+            return;
+        }
+
+        int count = attempts.count();
+        for (int i = 0; i < count; i++) {
+            attemptNanos[i] = attempts.nanosAt(i);
+            attemptStatuses[i] = attempts.statusAt(i);
+        }
+        attemptCount = count;
+        apiThread = attempts.thread();
+    }
+
+    void finish(String decision, String source) {
+        this.decision = decision;
+        this.source = source;
+        this.thread = Thread.currentThread().getName();
+        this.totalNanos = System.nanoTime() - startNanos;
+    }
+
+    void copyFrom(LoginTrace other) {
+        this.timestamp = other.timestamp;
+        this.startNanos = other.startNanos;
+        this.totalNanos = other.totalNanos;
+        this.username = other.username;
+        this.ip = other.ip;
+        this.decision = other.decision;
+        this.source = other.source;
+        this.thread = other.thread;
+        this.apiThread = other.apiThread;
+        this.networkNanos = other.networkNanos;
+        this.stageCount = other.stageCount;
+        this.attemptCount = other.attemptCount;
+        System.arraycopy(other.stageNames, 0, stageNames, 0, other.stageCount);
+        System.arraycopy(other.stageNanos, 0, stageNanos, 0, other.stageCount);
+        System.arraycopy(other.attemptNanos, 0, attemptNanos, 0, other.attemptCount);
+        System.arraycopy(other.attemptStatuses, 0, attemptStatuses, 0, other.attemptCount);
+    }
+}
@@ -0,0 +1,101 @@
+package it.mattiolservices.mantivpn.antivpn.trace;
+
+import java.lang.invoke.VarHandle;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+// Fixed ring of the latest login traces, every slot and every thread's scratch trace is allocated once
+// Writers claim slots with a CAS and skip a slot another writer still holds, nothing ever blocks a login
+public class TraceRecorder {
+
+    private static final long EMPTY = -2L;
+    private static final long WRITING = -1L;
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLong cursor;
+    private final ThreadLocal<LoginTrace> scratch;
+
+    public TraceRecorder(int capacity) {
+        int size = Integer.highestOneBit(Math.max(16, Math.min(capacity, 1 << 16)) * 2 - 1);
+        this.slots = new Slot[size];
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+        }
+        this.mask = size - 1;
+        this.cursor = new AtomicLong();
+        this.scratch = ThreadLocal.withInitial(LoginTrace::new);
+    }
+
+    // Starts the calling thread's trace, the returned instance is reused by the thread's next login
+    public LoginTrace begin(String username, String ip, long startNanos) {
+        LoginTrace trace = scratch.get();
+        trace.begin(username, ip, startNanos);
+        return trace;
+    }
+
+    // Publishes the calling thread's trace, only the first decision of a login is recorded
+    public void commit(String decision, String source) {
+        LoginTrace trace = scratch.get();
+        if (!trace.active) {
+            return;
+        }
+
+        trace.active = false;
+        trace.finish(decision, source);
+
+        long sequence = cursor.getAndIncrement();
+        Slot slot = slots[(int) (sequence & mask)];
+        long state = slot.state.get();
+        if (state == WRITING || !slot.state.compareAndSet(state, WRITING)) {
+            return;
+        }
+
+        slot.trace.copyFrom(trace);
+        slot.state.set(sequence);
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    // Newest first, a slot rewritten while being copied is left out
+    public List<LoginTrace> recent(Predicate<LoginTrace> filter, int limit) {
+        List<LoginTrace> traces = new ArrayList<>();
+        long newest = cursor.get() - 1;
+
+        for (long sequence = newest; sequence >= 0 && sequence > newest - slots.length && traces.size() < limit; sequence--) {
+            LoginTrace copy = read(slots[(int) (sequence & mask)], sequence);
+            if (copy != null && filter.test(copy)) {
+                traces.add(copy);
+            }
+        }
+        return traces;
+    }
+
+    public List<LoginTrace> slowest(int limit) {
+        List<LoginTrace> traces = recent(trace -> true, slots.length);
+        traces.sort(Comparator.comparingLong(LoginTrace::getTotalNanos).reversed());
+        return traces.subList(0, Math.min(limit, traces.size()));
+    }
+
+    private static LoginTrace read(Slot slot, long sequence) {
+        if (slot.state.get() != sequence) {
+            return null;
+        }
+
+        LoginTrace copy = new LoginTrace();
+        copy.copyFrom(slot.trace);
+        // Keeps the plain field reads above from moving past the second check of the sequence
+        VarHandle.acquireFence();
+        return slot.state.get() == sequence ? copy : null;
+    }
+
+    private static final class Slot {
+        private final LoginTrace trace = new LoginTrace();
+        private final AtomicLong state = new AtomicLong(EMPTY);
+    }
+}
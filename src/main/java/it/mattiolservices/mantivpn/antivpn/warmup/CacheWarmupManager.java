@@ -0,0 +1,113 @@
+package it.mattiolservices.mantivpn.antivpn.warmup;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.antivpn.cache.AntiVPNCache;
+import it.mattiolservices.mantivpn.antivpn.manager.AntiVPNManager;
+import it.mattiolservices.mantivpn.antivpn.quota.LookupPriority;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+@Slf4j
+public class CacheWarmupManager {
+
+    private final AntiVPNCache antiVPNCache;
+    private final AntiVPNManager antiVPNManager;
+    @Getter
+    private final RecentIPTracker recentIPTracker;
+    private final ScheduledExecutorService warmupExecutor;
+    private final Queue<String> pendingIPs;
+    private final AtomicInteger warmed;
+    private volatile ScheduledFuture<?> warmupTask;
+
+    public CacheWarmupManager(AntiVPNCache antiVPNCache, AntiVPNManager antiVPNManager) {
+        this.antiVPNCache = antiVPNCache;
+        this.antiVPNManager = antiVPNManager;
+
+        ConfigManager config = MAntiVPN.getConfigManager();
+        this.recentIPTracker = new RecentIPTracker(
+                MAntiVPN.getInstance().getDataDirectory().resolve("recent-ips.txt"),
+                config.getConfig().getInt("warmup.max-tracked", 5000),
+                config.getConfig().getDouble("warmup.recency-half-life-hours", 24.0));
+
+        this.warmupExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPN-CacheWarmup");
+            t.setDaemon(true);
+            return t;
+        });
+        this.pendingIPs = new ConcurrentLinkedQueue<>();
+        this.warmed = new AtomicInteger();
+
+        this.warmupExecutor.scheduleAtFixedRate(recentIPTracker::save, 5, 5, TimeUnit.MINUTES);
+    }
+
+    public void start() {
+        warmupExecutor.execute(() -> {
+            recentIPTracker.load();
+
+            ConfigManager config = MAntiVPN.getConfigManager();
+            if (!config.getConfig().getBoolean("warmup.enabled", true)) {
+                return;
+            }
+
+            pendingIPs.addAll(recentIPTracker.getTopIPs(config.getConfig().getInt("warmup.top", 500)));
+            if (pendingIPs.isEmpty()) {
+                return;
+            }
+
+            int ratePerSecond = Math.max(1, config.getConfig().getInt("warmup.rate-per-second", 5));
+            log.info("[/] Warming up AntiVPN Cache with {} recent IPs ({} per second)", pendingIPs.size(), ratePerSecond);
+            warmupTask = warmupExecutor.scheduleAtFixedRate(this::warmNext, 0, 1_000_000L / ratePerSecond, TimeUnit.MICROSECONDS);
+        });
+    }
+
+    public void recordAdmission(String ip) {
+        recentIPTracker.recordAdmission(ip);
+    }
+
+    private void warmNext() {
+        String ip = pendingIPs.poll();
+        if (ip == null) {
+            ScheduledFuture<?> task = warmupTask;
+            if (task != null) {
+                task.cancel(false);
+            }
+            log.info("[/] AntiVPN Cache warm-up finished, {} IPs cached", warmed.get());
+            return;
+        }
+
+        if (antiVPNCache.isCached(ip)) {
+            return;
+        }
+
+        antiVPNManager.checkIPAsync(ip, LookupPriority.LOW).thenAccept(result -> {
+            if (!result.isSuspicious(MAntiVPN.getConfigManager())) {
+                antiVPNCache.cacheResult(ip, result);
+                warmed.incrementAndGet();
+            }
+        });
+    }
+
+    public void shutdown() {
+        pendingIPs.clear();
+        recentIPTracker.save();
+
+        warmupExecutor.shutdown();
+        try {
+            if (!warmupExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                warmupExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            warmupExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+}
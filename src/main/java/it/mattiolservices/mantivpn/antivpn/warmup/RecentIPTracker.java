@@ -0,0 +1,117 @@
+package it.mattiolservices.mantivpn.antivpn.warmup;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+@Slf4j
+public class RecentIPTracker {
+
+    private final Path file;
+    private final int maxTracked;
+    private final double halfLifeMillis;
+    private final ConcurrentHashMap<String, RecentIP> recentIPs;
+
+    public RecentIPTracker(Path file, int maxTracked, double halfLifeHours) {
+        this.file = file;
+        this.maxTracked = Math.max(1, maxTracked);
+        this.halfLifeMillis = Math.max(1.0, halfLifeHours) * 3_600_000.0;
+        this.recentIPs = new ConcurrentHashMap<>();
+    }
+
+    public void recordAdmission(String ip) {
+        long now = System.currentTimeMillis();
+        recentIPs.compute(ip, (key, existing) -> existing == null
+                ? new RecentIP(key, 1, now)
+                : new RecentIP(key, existing.count() + 1, now));
+
+        if (recentIPs.size() > maxTracked + maxTracked / 10) {
+            trim();
+        }
+    }
+
+    public List<String> getTopIPs(int limit) {
+        long now = System.currentTimeMillis();
+        return recentIPs.values().stream()
+                .sorted(Comparator.comparingDouble((RecentIP recentIP) -> score(recentIP, now)).reversed())
+                .limit(limit)
+                .map(RecentIP::ip)
+                .toList();
+    }
+
+    public int size() {
+        return recentIPs.size();
+    }
+
+    public void load() {
+        if (!Files.exists(file)) {
+            return;
+        }
+
+        try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                String[] parts = line.trim().split(" ");
+                if (parts.length != 3) {
+                    continue;
+                }
+
+                try {
+                    recentIPs.put(parts[0], new RecentIP(parts[0], Integer.parseInt(parts[1]), Long.parseLong(parts[2])));
+                } catch (NumberFormatException ignored) {
+                }
+            }
+        } catch (IOException e) {
+            log.error("[!] Failed to load recent IPs from {}: {}", file.getFileName(), e.getMessage());
+        }
+    }
+
+    public synchronized void save() {
+        trim();
+
+        Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            Files.createDirectories(file.getParent());
+            try (BufferedWriter writer = Files.newBufferedWriter(temp, StandardCharsets.UTF_8)) {
+                for (RecentIP recentIP : recentIPs.values()) {
+                    writer.write(recentIP.ip() + " " + recentIP.count() + " " + recentIP.lastSeen());
+                    writer.newLine();
+                }
+            }
+            Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("[!] Failed to save recent IPs to {}: {}", file.getFileName(), e.getMessage());
+        }
+    }
+
+    private synchronized void trim() {
+        int excess = recentIPs.size() - maxTracked;
+        if (excess <= 0) {
+            return;
+        }
+
+        long now = System.currentTimeMillis();
+        recentIPs.values().stream()
+                .sorted(Comparator.comparingDouble(recentIP -> score(recentIP, now)))
+                .limit(excess)
+                .toList()
+                .forEach(recentIP -> recentIPs.remove(recentIP.ip()));
+    }
+
+    // Admission count decayed by how long ago the IP was last seen
+    private double score(RecentIP recentIP, long now) {
+        long age = Math.max(0L, now - recentIP.lastSeen());
+        return recentIP.count() * Math.pow(0.5, age / halfLifeMillis);
+    }
+
+    private record RecentIP(String ip, int count, long lastSeen) {}
+}
@@ -0,0 +1,30 @@
+package it.mattiolservices.mantivpn.api;
+
+// Velocity has no service registry, other plugins depend on mantivpn and read the service from here
+public final class AntiVPNProvider {
+
+    private static volatile AntiVPNService service;
+
+    private AntiVPNProvider() {
+    }
+
+    public static AntiVPNService get() {
+        AntiVPNService current = service;
+        if (current == null) {
+            throw new IllegalStateException("mAntiVPN is not loaded");
+        }
+        return current;
+    }
+
+    public static boolean isAvailable() {
+        return service != null;
+    }
+
+    public static void register(AntiVPNService antiVPNService) {
+        service = antiVPNService;
+    }
+
+    public static void unregister() {
+        service = null;
+    }
+}
@@ -0,0 +1,14 @@
+package it.mattiolservices.mantivpn.api;
+
+import java.net.InetAddress;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+// Lookups made through this service share the plugin's cache, request de-duplication and API quota
+public interface AntiVPNService {
+
+    CompletableFuture<AntiVPNVerdict> check(InetAddress address);
+
+    // Never blocks and never contacts the API, empty when the address is not cached
+    Optional<AntiVPNVerdict> peek(InetAddress address);
+}
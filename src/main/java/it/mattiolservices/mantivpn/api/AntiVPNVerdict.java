@@ -0,0 +1,15 @@
+package it.mattiolservices.mantivpn.api;
+
+public record AntiVPNVerdict(
+        String ip,
+        boolean suspicious,
+        boolean vpn,
+        boolean proxy,
+        boolean tor,
+        boolean datacenter,
+        boolean residential,
+        double threatScore,
+        String country,
+        String provider,
+        String source
+) {}
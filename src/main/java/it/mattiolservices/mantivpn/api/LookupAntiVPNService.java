@@ -0,0 +1,46 @@
+package it.mattiolservices.mantivpn.api;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.lookup.IPLookupService;
+
+import java.net.InetAddress;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+
+public class LookupAntiVPNService implements AntiVPNService {
+
+    private final IPLookupService lookupService;
+
+    public LookupAntiVPNService(IPLookupService lookupService) {
+        this.lookupService = lookupService;
+    }
+
+    @Override
+    public CompletableFuture<AntiVPNVerdict> check(InetAddress address) {
+        String ip = toIP(address);
+        return lookupService.lookup(ip)
+                .thenApply(lookupResult -> toVerdict(ip, lookupResult.result(), lookupResult.source()));
+    }
+
+    @Override
+    public Optional<AntiVPNVerdict> peek(InetAddress address) {
+        String ip = toIP(address);
+        return Optional.ofNullable(lookupService.fromCache(ip))
+                .map(result -> toVerdict(ip, result, "cache"));
+    }
+
+    private static String toIP(InetAddress address) {
+        String ip = Objects.requireNonNull(address, "address").getHostAddress();
+        // Scoped IPv6 literals carry an interface suffix the cache keys never have
+        int scope = ip.indexOf('%');
+        return scope < 0 ? ip : ip.substring(0, scope);
+    }
+
+    private static AntiVPNVerdict toVerdict(String ip, IPCheckResult result, String source) {
+        return new AntiVPNVerdict(ip, result.isSuspicious(MAntiVPN.getConfigManager()),
+                result.vpn(), result.proxy(), result.tor(), result.datacenter(), result.residential(),
+                result.threatScore(), result.country(), result.provider(), source);
+    }
+}
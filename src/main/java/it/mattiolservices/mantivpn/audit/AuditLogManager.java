@@ -0,0 +1,448 @@
+package it.mattiolservices.mantivpn.audit;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonObject;
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+@Slf4j
+public class AuditLogManager {
+
+    private static final int INDEX_MAGIC = 0x4D415649;
+    private static final int INDEX_VERSION = 1;
+    private static final int MAX_BATCH = 512;
+
+    private final Path directory;
+    private final BlockingQueue<AuditRecord> queue;
+    private final AtomicLong droppedRecords;
+    private final Gson gson;
+    private final long maxSegmentBytes;
+    private final long rotateMillis;
+    private final int maxSegments;
+    private final Thread writerThread;
+    private volatile boolean running;
+
+    // Writer thread state, the active index is also read by lookups under indexLock
+    private final Object indexLock = new Object();
+    private final ByteArrayOutputStream batchBuffer = new ByteArrayOutputStream(64 * 1024);
+    private FileChannel channel;
+    private volatile Path segmentPath;
+    private long segmentCreated;
+    private long segmentSize;
+    private long[] activeHashes = new long[1024];
+    private long[] activeOffsets = new long[1024];
+    private int activeCount;
+
+    public AuditLogManager() {
+        ConfigManager config = MAntiVPN.getConfigManager();
+        this.directory = MAntiVPN.getInstance().getDataDirectory().resolve("audit");
+        this.queue = new ArrayBlockingQueue<>(Math.max(1024, config.getConfig().getInt("audit.queue-size", 8192)));
+        this.droppedRecords = new AtomicLong();
+        this.gson = new Gson();
+        this.maxSegmentBytes = Math.max(1L, config.getConfig().getLong("audit.max-file-mb", 16L)) * 1024L * 1024L;
+        this.rotateMillis = TimeUnit.HOURS.toMillis(Math.max(1L, config.getConfig().getLong("audit.rotate-hours", 24L)));
+        this.maxSegments = Math.max(1, config.getConfig().getInt("audit.max-files", 30));
+        this.running = true;
+
+        this.writerThread = new Thread(this::runWriter, "AntiVPN-AuditWriter");
+        this.writerThread.setDaemon(true);
+        this.writerThread.start();
+    }
+
+    public void record(AuditRecord record) {
+        if (!queue.offer(record)) {
+            droppedRecords.incrementAndGet();
+        }
+    }
+
+    public long getDroppedRecords() {
+        return droppedRecords.get();
+    }
+
+    public List<AuditRecord> history(String target, int limit) {
+        String key = target.toLowerCase(Locale.ROOT);
+        long hash = hash(key);
+        List<AuditRecord> results = new ArrayList<>();
+
+        try {
+            for (Path segment : listSegments()) {
+                long[] offsets = segment.equals(segmentPath) ? activeOffsetsFor(hash) : indexedOffsetsFor(segment, hash);
+                if (offsets.length == 0) {
+                    continue;
+                }
+
+                try (FileChannel reader = FileChannel.open(segment, StandardOpenOption.READ)) {
+                    // Newest records first
+                    for (int i = offsets.length - 1; i >= 0 && results.size() < limit; i--) {
+                        AuditRecord record = readRecord(reader, offsets[i]);
+                        if (record != null && (key.equals(record.ip()) || key.equalsIgnoreCase(record.username()))) {
+                            results.add(record);
+                        }
+                    }
+                }
+
+                if (results.size() >= limit) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            log.error("[!] Failed to read audit history for {}: {}", target, e.getMessage());
+        }
+
+        return results;
+    }
+
+    private void runWriter() {
+        try {
+            Files.createDirectories(directory);
+            indexOrphanedSegments();
+            openSegment();
+        } catch (IOException e) {
+            log.error("[!] Failed to open the audit log, decisions will not be recorded: {}", e.getMessage());
+            running = false;
+            return;
+        }
+
+        List<AuditRecord> batch = new ArrayList<>(MAX_BATCH);
+        while (running || !queue.isEmpty()) {
+            try {
+                AuditRecord first = queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    queue.drainTo(batch, MAX_BATCH - 1);
+                    writeBatch(batch);
+                    batch.clear();
+                }
+
+                if (segmentSize >= maxSegmentBytes || System.currentTimeMillis() - segmentCreated >= rotateMillis) {
+                    rotate();
+                }
+            } catch (InterruptedException e) {
+                running = false;
+            } catch (IOException e) {
+                log.error("[!] Failed to write {} audit records: {}", batch.size(), e.getMessage());
+                batch.clear();
+            }
+        }
+
+        try {
+            closeSegment();
+        } catch (IOException e) {
+            log.error("[!] Failed to close the audit log: {}", e.getMessage());
+        }
+    }
+
+    private void writeBatch(List<AuditRecord> batch) throws IOException {
+        batchBuffer.reset();
+        long[] lineOffsets = new long[batch.size()];
+
+        for (int i = 0; i < batch.size(); i++) {
+            lineOffsets[i] = segmentSize + batchBuffer.size();
+            batchBuffer.write(toJson(batch.get(i)).getBytes(StandardCharsets.UTF_8));
+            batchBuffer.write('\n');
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(batchBuffer.toByteArray());
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        segmentSize += batchBuffer.size();
+
+        synchronized (indexLock) {
+            for (int i = 0; i < batch.size(); i++) {
+                AuditRecord record = batch.get(i);
+                addIndexEntry(hash(record.ip().toLowerCase(Locale.ROOT)), lineOffsets[i]);
+                addIndexEntry(hash(record.username().toLowerCase(Locale.ROOT)), lineOffsets[i]);
+            }
+        }
+    }
+
+    private void addIndexEntry(long hash, long offset) {
+        if (activeCount == activeHashes.length) {
+            activeHashes = Arrays.copyOf(activeHashes, activeCount * 2);
+            activeOffsets = Arrays.copyOf(activeOffsets, activeCount * 2);
+        }
+        activeHashes[activeCount] = hash;
+        activeOffsets[activeCount] = offset;
+        activeCount++;
+    }
+
+    private long[] activeOffsetsFor(long hash) {
+        synchronized (indexLock) {
+            return collectOffsets(activeHashes, activeOffsets, activeCount, hash);
+        }
+    }
+
+    private static long[] collectOffsets(long[] hashes, long[] offsets, int count, long hash) {
+        long[] matches = new long[8];
+        int found = 0;
+        for (int i = 0; i < count; i++) {
+            if (hashes[i] == hash) {
+                if (found == matches.length) {
+                    matches = Arrays.copyOf(matches, found * 2);
+                }
+                matches[found++] = offsets[i];
+            }
+        }
+        return Arrays.copyOf(matches, found);
+    }
+
+    private void openSegment() throws IOException {
+        segmentCreated = System.currentTimeMillis();
+        segmentPath = directory.resolve("audit-" + segmentCreated + ".ndjson");
+        channel = FileChannel.open(segmentPath, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+        segmentSize = channel.size();
+        synchronized (indexLock) {
+            activeCount = 0;
+        }
+    }
+
+    private void closeSegment() throws IOException {
+        if (channel == null) {
+            return;
+        }
+
+        channel.force(false);
+        channel.close();
+        channel = null;
+
+        synchronized (indexLock) {
+            writeIndex(segmentPath, activeHashes, activeOffsets, activeCount);
+        }
+    }
+
+    private void rotate() throws IOException {
+        closeSegment();
+        openSegment();
+        pruneSegments();
+    }
+
+    private void pruneSegments() throws IOException {
+        List<Path> segments = listSegments();
+        for (int i = maxSegments; i < segments.size(); i++) {
+            Files.deleteIfExists(segments.get(i));
+            Files.deleteIfExists(indexPath(segments.get(i)));
+        }
+    }
+
+    // Segments left without an index by a crash get indexed once on startup
+    private void indexOrphanedSegments() throws IOException {
+        for (Path segment : listSegments()) {
+            if (Files.exists(indexPath(segment))) {
+                continue;
+            }
+
+            long[] hashes = new long[1024];
+            long[] offsets = new long[1024];
+            int count = 0;
+            long offset = 0;
+
+            try (BufferedReader reader = Files.newBufferedReader(segment, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    AuditRecord record = parse(line);
+                    if (record != null) {
+                        if (count + 2 > hashes.length) {
+                            hashes = Arrays.copyOf(hashes, hashes.length * 2);
+                            offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                        }
+                        hashes[count] = hash(record.ip().toLowerCase(Locale.ROOT));
+                        offsets[count++] = offset;
+                        hashes[count] = hash(record.username().toLowerCase(Locale.ROOT));
+                        offsets[count++] = offset;
+                    }
+                    offset += line.getBytes(StandardCharsets.UTF_8).length + 1;
+                }
+            }
+
+            writeIndex(segment, hashes, offsets, count);
+        }
+    }
+
+    // Index layout: magic, version, count, then count (hash, offset) pairs sorted by hash
+    private void writeIndex(Path segment, long[] hashes, long[] offsets, int count) throws IOException {
+        Integer[] order = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.<Integer>comparingLong(i -> hashes[i]).thenComparingLong(i -> offsets[i]));
+
+        ByteBuffer buffer = ByteBuffer.allocate(12 + count * 16);
+        buffer.putInt(INDEX_MAGIC).putInt(INDEX_VERSION).putInt(count);
+        for (int i : order) {
+            buffer.putLong(hashes[i]).putLong(offsets[i]);
+        }
+        buffer.flip();
+
+        Path temp = directory.resolve(segment.getFileName() + ".idx.tmp");
+        try (FileChannel out = FileChannel.open(temp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (buffer.hasRemaining()) {
+                out.write(buffer);
+            }
+        }
+        Files.move(temp, indexPath(segment), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private long[] indexedOffsetsFor(Path segment, long hash) throws IOException {
+        Path index = indexPath(segment);
+        if (!Files.exists(index)) {
+            return new long[0];
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(index));
+        if (buffer.remaining() < 12 || buffer.getInt() != INDEX_MAGIC || buffer.getInt() != INDEX_VERSION) {
+            return new long[0];
+        }
+
+        int count = buffer.getInt();
+        LongBuffer entries = buffer.slice().asLongBuffer();
+
+        int low = 0;
+        int high = count - 1;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (entries.get(mid * 2) < hash) {
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+
+        long[] matches = new long[8];
+        int found = 0;
+        for (int i = low; i < count && entries.get(i * 2) == hash; i++) {
+            if (found == matches.length) {
+                matches = Arrays.copyOf(matches, found * 2);
+            }
+            matches[found++] = entries.get(i * 2 + 1);
+        }
+        return Arrays.copyOf(matches, found);
+    }
+
+    private AuditRecord readRecord(FileChannel reader, long offset) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(512);
+        ByteArrayOutputStream line = new ByteArrayOutputStream(512);
+        long position = offset;
+
+        while (true) {
+            buffer.clear();
+            int read = reader.read(buffer, position);
+            if (read <= 0) {
+                break;
+            }
+
+            buffer.flip();
+            for (int i = 0; i < read; i++) {
+                byte b = buffer.get(i);
+                if (b == '\n') {
+                    return parse(line.toString(StandardCharsets.UTF_8));
+                }
+                line.write(b);
+            }
+            position += read;
+        }
+
+        return line.size() > 0 ? parse(line.toString(StandardCharsets.UTF_8)) : null;
+    }
+
+    private List<Path> listSegments() throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return List.of();
+        }
+
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(path -> {
+                        String name = path.getFileName().toString();
+                        return name.startsWith("audit-") && name.endsWith(".ndjson");
+                    })
+                    .sorted(Comparator.comparing((Path path) -> path.getFileName().toString()).reversed())
+                    .toList();
+        }
+    }
+
+    private Path indexPath(Path segment) {
+        return segment.resolveSibling(segment.getFileName() + ".idx");
+    }
+
+    private String toJson(AuditRecord record) {
+        JsonObject json = new JsonObject();
+        json.addProperty("timestamp", record.timestamp());
+        json.addProperty("ip", record.ip());
+        json.addProperty("username", record.username());
+        json.addProperty("vpn", record.vpn());
+        json.addProperty("proxy", record.proxy());
+        json.addProperty("tor", record.tor());
+        json.addProperty("datacenter", record.datacenter());
+        json.addProperty("residential", record.residential());
+        json.addProperty("threat_score", record.threatScore());
+        json.addProperty("decision", record.decision());
+        json.addProperty("source", record.source());
+        json.addProperty("latency_us", record.latencyMicros());
+        return gson.toJson(json);
+    }
+
+    private AuditRecord parse(String line) {
+        try {
+            JsonObject json = gson.fromJson(line, JsonObject.class);
+            return AuditRecord.builder()
+                    .timestamp(json.get("timestamp").getAsLong())
+                    .ip(json.get("ip").getAsString())
+                    .username(json.get("username").getAsString())
+                    .vpn(json.get("vpn").getAsBoolean())
+                    .proxy(json.get("proxy").getAsBoolean())
+                    .tor(json.get("tor").getAsBoolean())
+                    .datacenter(json.get("datacenter").getAsBoolean())
+                    .residential(json.get("residential").getAsBoolean())
+                    .threatScore(json.get("threat_score").getAsDouble())
+                    .decision(json.get("decision").getAsString())
+                    .source(json.get("source").getAsString())
+                    .latencyMicros(json.get("latency_us").getAsLong())
+                    .build();
+        } catch (Exception e) {
+            return null;
+        }
+    }
+
+    // FNV-1a, collisions are filtered out by comparing the parsed record
+    private static long hash(String key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash ^= key.charAt(i);
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+
+    public void shutdown() {
+        running = false;
+        try {
+            writerThread.join(TimeUnit.SECONDS.toMillis(5));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
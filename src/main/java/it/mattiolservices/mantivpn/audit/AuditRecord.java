@@ -0,0 +1,19 @@
+package it.mattiolservices.mantivpn.audit;
+
+import lombok.Builder;
+
+@Builder
+public record AuditRecord(
+        long timestamp,
+        String ip,
+        String username,
+        boolean vpn,
+        boolean proxy,
+        boolean tor,
+        boolean datacenter,
+        boolean residential,
+        double threatScore,
+        String decision,
+        String source,
+        long latencyMicros
+) {}
@@ -4,16 +4,38 @@ import com.velocitypowered.api.command.CommandSource;
 import com.velocitypowered.api.proxy.Player;
 import it.mattiolservices.mantivpn.MAntiVPN;
 import it.mattiolservices.mantivpn.alert.manager.AlertManager;
+import it.mattiolservices.mantivpn.antivpn.blocklist.BlocklistIndex;
+import it.mattiolservices.mantivpn.antivpn.cache.CacheTransfer;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.lookup.LookupResult;
+import it.mattiolservices.mantivpn.antivpn.pipeline.DecisionPipeline;
+import it.mattiolservices.mantivpn.antivpn.pipeline.StageStats;
+import it.mattiolservices.mantivpn.antivpn.quota.ApiQuota;
+import it.mattiolservices.mantivpn.antivpn.trace.LoginTrace;
+import it.mattiolservices.mantivpn.antivpn.trace.TraceRecorder;
+import it.mattiolservices.mantivpn.audit.AuditLogManager;
+import it.mattiolservices.mantivpn.audit.AuditRecord;
 import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.utils.AntiVPNUtils;
 import it.mattiolservices.mantivpn.utils.CC;
 import lombok.extern.slf4j.Slf4j;
 import revxrsal.commands.annotation.Command;
 import revxrsal.commands.annotation.Description;
 import revxrsal.commands.annotation.Subcommand;
 import revxrsal.commands.annotation.Named;
+import revxrsal.commands.annotation.Optional;
+import revxrsal.commands.annotation.Switch;
 import revxrsal.commands.velocity.annotation.CommandPermission;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
 
 @Slf4j
 @Command("antivpn")
@@ -21,6 +43,10 @@ import java.util.concurrent.ConcurrentHashMap;
 @Description("Main AntiVPN command")
 public class AntiVPNCMD {
 
+    private static final String EXPORTS_FOLDER = "exports";
+    private static final String EXPORT_EXTENSION = ".mvc";
+    private static final Pattern EXPORT_NAME = Pattern.compile("[A-Za-z0-9_-]{1,64}");
+
     private final AlertManager alertManager;
     private final ConfigManager configManager;
 
@@ -51,6 +77,13 @@ public class AntiVPNCMD {
         sender.sendMessage(CC.translate("&7/antivpn alerts - Toggle alert notifications for yourself"));
         sender.sendMessage(CC.translate("&7/antivpn cache clear - Clears the alert cache"));
         sender.sendMessage(CC.translate("&7/antivpn cache info - Shows cache information"));
+        sender.sendMessage(CC.translate("&7/antivpn cache export <name> [--overwrite] - Saves the verdict cache to exports/<name>.mvc"));
+        sender.sendMessage(CC.translate("&7/antivpn cache import <name> - Loads exports/<name>.mvc exported by another proxy"));
+        sender.sendMessage(CC.translate("&7/antivpn history <ip|player> - Shows recent decisions"));
+        sender.sendMessage(CC.translate("&7/antivpn lookup <ip> - Shows the verdict for an IP"));
+        sender.sendMessage(CC.translate("&7/antivpn scan - Re-checks every online player"));
+        sender.sendMessage(CC.translate("&7/antivpn stats - Shows where login time is spent"));
+        sender.sendMessage(CC.translate("&7/antivpn trace [player|ip|slowest <amount>] - Shows recent login traces"));
         sender.sendMessage(CC.translate("&7/antivpn reload - Reloads the plugin configuration"));
         sender.sendMessage(CC.translate(""));
         sender.sendMessage(CC.translate("&b&l═══════════════════════════════════════"));
@@ -137,6 +170,7 @@ public class AntiVPNCMD {
     public void reloadConfig(CommandSource sender) {
         try {
             configManager.reload();
+            MAntiVPN.getInstance().reloadComponents();
             String rawMessage = MAntiVPN.getConfigManager().getMessages().getString("antivpn.reload.success");
             sender.sendMessage(CC.translate(rawMessage));
             log.info("Configuration reloaded by {}", getCommandSourceName(sender));
@@ -185,6 +219,315 @@ public class AntiVPNCMD {
 
 
 
+    @Subcommand("cache export")
+    @CommandPermission("mantivpn.admin")
+    @Description("Save the verdict cache to a file")
+    public void exportCache(CommandSource sender, @Named("file") String name, @Switch("overwrite") boolean overwrite) {
+        Path path = resolveExportFile(name);
+        if (path == null) {
+            sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.cache.transfer.invalid-file")
+                    .replace("%file%", name)));
+            return;
+        }
+
+        String file = EXPORTS_FOLDER + "/" + path.getFileName();
+        if (!overwrite && Files.exists(path)) {
+            sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.cache.transfer.exists")
+                    .replace("%file%", file)));
+            return;
+        }
+
+        CompletableFuture.runAsync(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                int exported = CacheTransfer.export(MAntiVPN.getInstance().getAntiVPNCache(), path);
+                sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.cache.transfer.exported")
+                        .replace("%amount%", String.valueOf(exported))
+                        .replace("%file%", file)
+                        .replace("%time%", String.valueOf(System.currentTimeMillis() - start))));
+                log.info("Verdict cache exported to {} by {} ({} entries)", path, getCommandSourceName(sender), exported);
+            } catch (Exception e) {
+                sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.cache.transfer.failure")
+                        .replace("%file%", file)
+                        .replace("%error%", String.valueOf(e.getMessage()))));
+                log.error("Failed to export the verdict cache to {}", path, e);
+            }
+        });
+    }
+
+    @Subcommand("cache import")
+    @CommandPermission("mantivpn.admin")
+    @Description("Load a verdict cache exported by another proxy")
+    public void importCache(CommandSource sender, @Named("file") String name) {
+        Path path = resolveExportFile(name);
+        if (path == null) {
+            sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.cache.transfer.invalid-file")
+                    .replace("%file%", name)));
+            return;
+        }
+
+        String file = EXPORTS_FOLDER + "/" + path.getFileName();
+
+        CompletableFuture.runAsync(() -> {
+            long start = System.currentTimeMillis();
+            try {
+                CacheTransfer.ImportResult result = CacheTransfer.importInto(MAntiVPN.getInstance().getAntiVPNCache(), path);
+                sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.cache.transfer.imported")
+                        .replace("%amount%", String.valueOf(result.imported()))
+                        .replace("%expired%", String.valueOf(result.expired()))
+                        .replace("%file%", file)
+                        .replace("%time%", String.valueOf(System.currentTimeMillis() - start))));
+                log.info("Verdict cache imported from {} by {} ({} entries, {} expired)",
+                        path, getCommandSourceName(sender), result.imported(), result.expired());
+            } catch (Exception e) {
+                sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.cache.transfer.failure")
+                        .replace("%file%", file)
+                        .replace("%error%", String.valueOf(e.getMessage()))));
+                log.error("Failed to import the verdict cache from {}", path, e);
+            }
+        });
+    }
+
+    // Exports only ever live in the plugin's exports folder under a plain name, null for anything else
+    private Path resolveExportFile(String name) {
+        String baseName = name.endsWith(EXPORT_EXTENSION) ? name.substring(0, name.length() - EXPORT_EXTENSION.length()) : name;
+        if (!EXPORT_NAME.matcher(baseName).matches()) {
+            return null;
+        }
+        return MAntiVPN.getInstance().getDataDirectory().resolve(EXPORTS_FOLDER).resolve(baseName + EXPORT_EXTENSION);
+    }
+
+    @Subcommand("history")
+    @CommandPermission("mantivpn.admin")
+    @Description("Show recent decisions for an IP or player")
+    public void history(CommandSource sender, @Named("target") String target) {
+        AuditLogManager auditLogManager = MAntiVPN.getInstance().getAuditLogManager();
+        if (auditLogManager == null) {
+            sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.history.disabled")));
+            return;
+        }
+
+        int limit = configManager.getConfig().getInt("audit.history-limit", 10);
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+
+        CompletableFuture.runAsync(() -> {
+            List<AuditRecord> records = auditLogManager.history(target, limit);
+            if (records.isEmpty()) {
+                sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.history.none")
+                        .replace("%target%", target)));
+                return;
+            }
+
+            sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.history.header")
+                    .replace("%target%", target)
+                    .replace("%amount%", String.valueOf(records.size()))));
+
+            String entryTemplate = MAntiVPN.getConfigManager().getMessages().getString("antivpn.history.entry");
+            for (AuditRecord record : records) {
+                sender.sendMessage(CC.translate(entryTemplate
+                        .replace("%time%", formatter.format(Instant.ofEpochMilli(record.timestamp())))
+                        .replace("%player%", record.username())
+                        .replace("%ip%", record.ip())
+                        .replace("%decision%", record.decision())
+                        .replace("%score%", String.valueOf(record.threatScore()))
+                        .replace("%source%", record.source())
+                        .replace("%latency%", String.format("%.1f", record.latencyMicros() / 1000.0))));
+            }
+        });
+    }
+
+    @Subcommand("lookup")
+    @CommandPermission("mantivpn.admin")
+    @Description("Show the verdict for an IP and where it came from")
+    public void lookup(CommandSource sender, @Named("ip") String ip) {
+        if (AntiVPNUtils.parseIPv4(ip) < 0 && AntiVPNUtils.parseIPv6(ip) == null) {
+            sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.lookup.invalid")
+                    .replace("%ip%", ip)));
+            return;
+        }
+
+        MAntiVPN.getInstance().getIpLookupService().lookup(ip).whenComplete((lookupResult, throwable) -> {
+            if (throwable != null) {
+                sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.lookup.failure")
+                        .replace("%ip%", ip)
+                        .replace("%error%", String.valueOf(throwable.getMessage()))));
+                return;
+            }
+
+            sender.sendMessage(CC.translate(formatLookup(ip, lookupResult)));
+        });
+    }
+
+    @Subcommand("scan")
+    @CommandPermission("mantivpn.admin")
+    @Description("Re-check the IP of every online player")
+    public void scan(CommandSource sender) {
+        if (!MAntiVPN.getInstance().getPlayerScanner().startScan(sender)) {
+            sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.scan.already-running")));
+            return;
+        }
+
+        log.info("Player scan started by {}", getCommandSourceName(sender));
+    }
+
+    @Subcommand("stats")
+    @CommandPermission("mantivpn.admin")
+    @Description("Show per-stage timing and hit rates of the decision pipeline")
+    public void stats(CommandSource sender) {
+        DecisionPipeline pipeline = MAntiVPN.getInstance().getDecisionPipeline();
+        List<String> order = pipeline.getStageOrder();
+
+        long totalNanos = 0L;
+        for (String stage : order) {
+            totalNanos += pipeline.getStats(stage).getTotalNanos();
+        }
+
+        sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.stats.header")
+                .replace("%stages%", String.valueOf(order.size()))));
+
+        String stageTemplate = MAntiVPN.getConfigManager().getMessages().getString("antivpn.stats.stage");
+        for (int i = 0; i < order.size(); i++) {
+            StageStats stats = pipeline.getStats(order.get(i));
+            sender.sendMessage(CC.translate(stageTemplate
+                    .replace("%position%", String.valueOf(i + 1))
+                    .replace("%stage%", order.get(i))
+                    .replace("%calls%", String.valueOf(stats.getCalls()))
+                    .replace("%hits%", String.valueOf(stats.getHits()))
+                    .replace("%hit-rate%", String.format("%.1f", stats.getHitRate() * 100.0))
+                    .replace("%errors%", String.valueOf(stats.getErrors()))
+                    .replace("%avg%", String.format("%.3f", stats.getAverageMicros() / 1000.0))
+                    .replace("%share%", String.format("%.1f", totalNanos == 0 ? 0.0 : stats.getTotalNanos() * 100.0 / totalNanos))));
+        }
+
+        sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.stats.footer")
+                .replace("%in-flight%", String.valueOf(pipeline.getLookupService().getInFlightCount()))
+                .replace("%cached%", String.valueOf(pipeline.getLookupService().getAntiVPNCache().getCacheSize()))
+                .replace("%deadline-misses%", String.valueOf(pipeline.getDeadlineMisses()))
+                .replace("%overrun%", String.format("%.1f", pipeline.getOverrunNanos() / 1_000_000.0))));
+
+        sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.stats.early-reject")
+                .replace("%rejected%", String.valueOf(MAntiVPN.getInstance().getEarlyRejectListener().getRejected()))));
+
+        BlocklistIndex blocklist = MAntiVPN.getInstance().getBlocklistIndex();
+        if (blocklist != null) {
+            sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.stats.blocklist")
+                    .replace("%entries%", String.valueOf(blocklist.size()))
+                    .replace("%filter%", String.valueOf(blocklist.getFilterBytes() / 1024))));
+        }
+
+        ApiQuota quota = MAntiVPN.getInstance().getApiQuota();
+        if (!quota.isEnabled()) {
+            sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.stats.quota-disabled")));
+            return;
+        }
+
+        sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.stats.quota")
+                .replace("%second%", quota.getPerSecond() == 0 ? "-" : String.valueOf(quota.getSecondRemaining()))
+                .replace("%per-second%", quota.getPerSecond() == 0 ? "-" : String.valueOf(quota.getPerSecond()))
+                .replace("%day%", quota.getPerDay() == 0 ? "-" : String.valueOf(quota.getDayRemaining()))
+                .replace("%per-day%", quota.getPerDay() == 0 ? "-" : String.valueOf(quota.getPerDay()))
+                .replace("%rejected%", String.valueOf(quota.getRejected()))));
+    }
+
+    @Subcommand("trace")
+    @CommandPermission("mantivpn.admin")
+    @Description("Show recent login traces, optionally for an IP or player")
+    public void trace(CommandSource sender, @Optional @Named("target") String target) {
+        TraceRecorder traceRecorder = MAntiVPN.getInstance().getTraceRecorder();
+        int limit = configManager.getConfig().getInt("trace.show", 10);
+
+        if (target == null) {
+            sendTraces(sender, traceRecorder.recent(trace -> true, limit),
+                    MAntiVPN.getConfigManager().getMessages().getString("antivpn.trace.recent-header"), "");
+            return;
+        }
+
+        sendTraces(sender, traceRecorder.recent(trace -> target.equals(trace.getIp()) || target.equalsIgnoreCase(trace.getUsername()), limit),
+                MAntiVPN.getConfigManager().getMessages().getString("antivpn.trace.target-header"), target);
+    }
+
+    @Subcommand("trace slowest")
+    @CommandPermission("mantivpn.admin")
+    @Description("Show the slowest recent login traces")
+    public void traceSlowest(CommandSource sender, @Named("amount") int amount) {
+        TraceRecorder traceRecorder = MAntiVPN.getInstance().getTraceRecorder();
+        sendTraces(sender, traceRecorder.slowest(Math.max(1, Math.min(amount, 100))),
+                MAntiVPN.getConfigManager().getMessages().getString("antivpn.trace.slowest-header"), "");
+    }
+
+    private void sendTraces(CommandSource sender, List<LoginTrace> traces, String header, String target) {
+        if (traces.isEmpty()) {
+            sender.sendMessage(CC.translate(MAntiVPN.getConfigManager().getMessages().getString("antivpn.trace.none")));
+            return;
+        }
+
+        DateTimeFormatter formatter = DateTimeFormatter.ofPattern("HH:mm:ss").withZone(ZoneId.systemDefault());
+        String entryTemplate = MAntiVPN.getConfigManager().getMessages().getString("antivpn.trace.entry");
+        String stagesTemplate = MAntiVPN.getConfigManager().getMessages().getString("antivpn.trace.stages");
+        String stageTemplate = MAntiVPN.getConfigManager().getMessages().getString("antivpn.trace.stage");
+        String networkTemplate = MAntiVPN.getConfigManager().getMessages().getString("antivpn.trace.network");
+        String attemptTemplate = MAntiVPN.getConfigManager().getMessages().getString("antivpn.trace.attempt");
+
+        sender.sendMessage(CC.translate(header
+                .replace("%amount%", String.valueOf(traces.size()))
+                .replace("%target%", target)));
+
+        for (LoginTrace trace : traces) {
+            sender.sendMessage(CC.translate(entryTemplate
+                    .replace("%time%", formatter.format(Instant.ofEpochMilli(trace.getTimestamp())))
+                    .replace("%player%", trace.getUsername())
+                    .replace("%ip%", trace.getIp())
+                    .replace("%decision%", trace.getDecision())
+                    .replace("%source%", trace.getSource())
+                    .replace("%total%", String.format("%.2f", trace.getTotalNanos() / 1_000_000.0))
+                    .replace("%thread%", trace.getThread())));
+
+            StringBuilder stages = new StringBuilder();
+            for (int i = 0; i < trace.getStageCount(); i++) {
+                stages.append(i > 0 ? " " : "").append(stageTemplate
+                        .replace("%stage%", trace.getStageNames()[i])
+                        .replace("%time%", String.format("%.3f", trace.getStageNanos()[i] / 1_000_000.0)));
+            }
+            sender.sendMessage(CC.translate(stagesTemplate.replace("%stages%", stages.toString())));
+
+            if (trace.getNetworkNanos() == 0L && trace.getAttemptCount() == 0) {
+                continue;
+            }
+
+            StringBuilder attempts = new StringBuilder();
+            for (int i = 0; i < trace.getAttemptCount(); i++) {
+                int status = trace.getAttemptStatuses()[i];
+                attempts.append(i > 0 ? " " : "").append(attemptTemplate
+                        .replace("%status%", status == 0 ? "failed" : String.valueOf(status))
+                        .replace("%time%", String.format("%.1f", trace.getAttemptNanos()[i] / 1_000_000.0)));
+            }
+            sender.sendMessage(CC.translate(networkTemplate
+                    .replace("%wait%", String.format("%.1f", trace.getNetworkNanos() / 1_000_000.0))
+                    .replace("%api-thread%", String.valueOf(trace.getApiThread()))
+                    .replace("%attempts%", attempts.toString())));
+        }
+    }
+
+    private String formatLookup(String ip, LookupResult lookupResult) {
+        IPCheckResult result = lookupResult.result();
+        String verdict = result.isSuspicious(configManager)
+                ? MAntiVPN.getConfigManager().getMessages().getString("antivpn.lookup.suspicious")
+                : MAntiVPN.getConfigManager().getMessages().getString("antivpn.lookup.clean");
+
+        return MAntiVPN.getConfigManager().getMessages().getString("antivpn.lookup.result")
+                .replace("%ip%", ip)
+                .replace("%verdict%", verdict)
+                .replace("%source%", lookupResult.source())
+                .replace("%vpn%", String.valueOf(result.vpn()))
+                .replace("%proxy%", String.valueOf(result.proxy()))
+                .replace("%tor%", String.valueOf(result.tor()))
+                .replace("%datacenter%", String.valueOf(result.datacenter()))
+                .replace("%residential%", String.valueOf(result.residential()))
+                .replace("%score%", String.valueOf(result.threatScore()))
+                .replace("%country%", result.country())
+                .replace("%provider%", result.provider());
+    }
+
     private String getCommandSourceName(CommandSource source) {
         if (source instanceof Player player) {
             return player.getUsername();
@@ -0,0 +1,335 @@
+package it.mattiolservices.mantivpn.discord;
+
+import it.mattiolservices.mantivpn.alert.info.AlertInfo;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.TreeMap;
+import java.util.zip.CRC32;
+
+// Append-only segment files holding alerts a sink could not deliver yet
+// Each record is [length][crc32][alert], a cursor file remembers how far the replay got
+@Slf4j
+public class AlertSpool {
+
+    private static final int MAGIC = 0x4D53504C;
+    private static final int VERSION = 1;
+    private static final int SEGMENT_HEADER_BYTES = 8;
+    private static final int RECORD_HEADER_BYTES = 8;
+    private static final int MAX_RECORD_BYTES = 64 * 1024;
+
+    private final String name;
+    private final Path directory;
+    private final long segmentBytes;
+    private final long maxBytes;
+    private final TreeMap<Long, Long> segmentSizes;
+    private final FileChannel cursorChannel;
+    private long nextSegment;
+    private long totalBytes;
+
+    private FileChannel writeChannel;
+    private long writeSegment = -1L;
+
+    private FileChannel readChannel;
+    private long readSegment = -1L;
+    private long readOffset;
+    private int peekedBytes;
+
+    public AlertSpool(String name, Path directory, long segmentBytes, long maxBytes) throws IOException {
+        this.name = name;
+        this.directory = directory;
+        this.segmentBytes = Math.max(segmentBytes, SEGMENT_HEADER_BYTES + RECORD_HEADER_BYTES + MAX_RECORD_BYTES);
+        this.maxBytes = Math.max(maxBytes, this.segmentBytes * 2);
+        this.segmentSizes = new TreeMap<>();
+
+        Files.createDirectories(directory);
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.seg")) {
+            for (Path file : files) {
+                String fileName = file.getFileName().toString();
+                try {
+                    long id = Long.parseLong(fileName.substring(0, fileName.length() - 4));
+                    long size = Files.size(file);
+                    segmentSizes.put(id, size);
+                    totalBytes += size;
+                } catch (NumberFormatException e) {
+                    log.warn("[Discord] Ignoring unknown file {} in the alert spool of sink {}", fileName, name);
+                }
+            }
+        }
+        // A segment left by a crash may end in a partial record, new alerts always start a fresh one
+        this.nextSegment = segmentSizes.isEmpty() ? 1L : segmentSizes.lastKey() + 1L;
+
+        this.cursorChannel = FileChannel.open(directory.resolve("cursor"),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer cursor = ByteBuffer.allocate(16);
+        if (cursorChannel.read(cursor, 0) == 16) {
+            cursor.flip();
+            long segment = cursor.getLong();
+            long offset = cursor.getLong();
+            if (segmentSizes.containsKey(segment)) {
+                openRead(segment, offset);
+            }
+        }
+
+        if (!segmentSizes.isEmpty()) {
+            log.info("[Discord] Alert spool of sink {} holds {} KB to replay", name, totalBytes / 1024);
+        }
+    }
+
+    // Full spools drop their oldest segment, so disk use stays under the configured limit
+    public synchronized void append(AlertInfo alertInfo) throws IOException {
+        byte[] record = encode(alertInfo);
+        int recordBytes = RECORD_HEADER_BYTES + record.length;
+
+        if (writeChannel == null || segmentSizes.get(writeSegment) + recordBytes > segmentBytes) {
+            roll();
+        }
+        while (totalBytes + recordBytes > maxBytes && segmentSizes.firstKey() != writeSegment) {
+            dropOldest();
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        ByteBuffer buffer = ByteBuffer.allocate(recordBytes);
+        buffer.putInt(record.length).putInt((int) crc.getValue()).put(record).flip();
+        while (buffer.hasRemaining()) {
+            writeChannel.write(buffer);
+        }
+
+        segmentSizes.merge(writeSegment, (long) recordBytes, Long::sum);
+        totalBytes += recordBytes;
+    }
+
+    // The oldest alert not replayed yet, it stays in the spool until commit() is called
+    public synchronized AlertInfo peek() throws IOException {
+        while (true) {
+            if (readChannel == null) {
+                if (segmentSizes.isEmpty()) {
+                    return null;
+                }
+                openRead(segmentSizes.firstKey(), SEGMENT_HEADER_BYTES);
+                continue;
+            }
+
+            long end = segmentSizes.get(readSegment);
+            if (readOffset + RECORD_HEADER_BYTES <= end) {
+                AlertInfo alertInfo = readRecord(end);
+                if (alertInfo != null) {
+                    return alertInfo;
+                }
+                finishSegment();
+                continue;
+            }
+
+            if (readSegment == writeSegment) {
+                return null;
+            }
+            finishSegment();
+        }
+    }
+
+    public synchronized void commit() throws IOException {
+        if (peekedBytes == 0) {
+            return;
+        }
+
+        readOffset += peekedBytes;
+        peekedBytes = 0;
+
+        ByteBuffer cursor = ByteBuffer.allocate(16);
+        cursor.putLong(readSegment).putLong(readOffset).flip();
+        while (cursor.hasRemaining()) {
+            cursorChannel.write(cursor, cursor.position());
+        }
+    }
+
+    public synchronized boolean hasPending() {
+        if (segmentSizes.isEmpty()) {
+            return false;
+        }
+        if (segmentSizes.size() > 1) {
+            return true;
+        }
+
+        long segment = segmentSizes.firstKey();
+        return segmentSizes.get(segment) > (segment == readSegment ? readOffset : SEGMENT_HEADER_BYTES);
+    }
+
+    public synchronized long getSpooledBytes() {
+        return totalBytes;
+    }
+
+    public synchronized void close() {
+        try {
+            if (writeChannel != null) {
+                writeChannel.close();
+            }
+            if (readChannel != null) {
+                readChannel.close();
+            }
+            cursorChannel.close();
+        } catch (IOException e) {
+            log.error("[Discord] Failed to close the alert spool of sink {}: {}", name, e.getMessage());
+        }
+    }
+
+    // Null when the record is damaged, the rest of the segment is then skipped
+    private AlertInfo readRecord(long end) throws IOException {
+        ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+        readFully(readChannel, header, readOffset);
+        int length = header.getInt(0);
+        int checksum = header.getInt(4);
+        if (length <= 0 || length > MAX_RECORD_BYTES || readOffset + RECORD_HEADER_BYTES + length > end) {
+            log.warn("[Discord] Damaged record in the alert spool of sink {}, skipping the rest of segment {}", name, readSegment);
+            return null;
+        }
+
+        ByteBuffer body = ByteBuffer.allocate(length);
+        readFully(readChannel, body, readOffset + RECORD_HEADER_BYTES);
+        CRC32 crc = new CRC32();
+        crc.update(body.array());
+        if ((int) crc.getValue() != checksum) {
+            log.warn("[Discord] Damaged record in the alert spool of sink {}, skipping the rest of segment {}", name, readSegment);
+            return null;
+        }
+
+        try {
+            AlertInfo alertInfo = decode(body.array());
+            peekedBytes = RECORD_HEADER_BYTES + length;
+            return alertInfo;
+        } catch (IOException e) {
+            log.warn("[Discord] Unreadable record in the alert spool of sink {}, skipping the rest of segment {}", name, readSegment);
+            return null;
+        }
+    }
+
+    private void openRead(long segment, long offset) throws IOException {
+        if (readChannel != null) {
+            readChannel.close();
+        }
+
+        readChannel = FileChannel.open(segmentFile(segment), StandardOpenOption.READ);
+        readSegment = segment;
+        readOffset = Math.max(offset, SEGMENT_HEADER_BYTES);
+        peekedBytes = 0;
+
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        if (readChannel.read(header, 0) != SEGMENT_HEADER_BYTES || header.getInt(0) != MAGIC || header.getInt(4) != VERSION) {
+            log.warn("[Discord] Segment {} of the alert spool of sink {} is unreadable, deleting it", segment, name);
+            readOffset = segmentSizes.get(segment);
+        }
+    }
+
+    private void roll() throws IOException {
+        if (writeChannel != null) {
+            writeChannel.close();
+        }
+
+        writeSegment = nextSegment++;
+        writeChannel = FileChannel.open(segmentFile(writeSegment), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(SEGMENT_HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).flip();
+        while (header.hasRemaining()) {
+            writeChannel.write(header);
+        }
+
+        segmentSizes.put(writeSegment, (long) SEGMENT_HEADER_BYTES);
+        totalBytes += SEGMENT_HEADER_BYTES;
+    }
+
+    private void dropOldest() throws IOException {
+        long oldest = segmentSizes.firstKey();
+        log.warn("[Discord] Alert spool of sink {} is full, dropping its oldest alerts", name);
+        if (oldest == readSegment) {
+            finishSegment();
+        } else {
+            deleteSegment(oldest);
+        }
+    }
+
+    private void finishSegment() throws IOException {
+        long segment = readSegment;
+        readChannel.close();
+        readChannel = null;
+        readSegment = -1L;
+        peekedBytes = 0;
+
+        if (segment == writeSegment) {
+            // Only reached with a damaged record in the open segment, new alerts move on to the next one
+            roll();
+        }
+        deleteSegment(segment);
+    }
+
+    private void deleteSegment(long segment) throws IOException {
+        Long size = segmentSizes.remove(segment);
+        if (size != null) {
+            totalBytes -= size;
+        }
+        Files.deleteIfExists(segmentFile(segment));
+    }
+
+    private Path segmentFile(long segment) {
+        return directory.resolve(String.format("%016d.seg", segment));
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of spool segment");
+            }
+        }
+    }
+
+    private static byte[] encode(AlertInfo alertInfo) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(128);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            IPCheckResult result = alertInfo.result();
+            out.writeUTF(alertInfo.username());
+            out.writeUTF(alertInfo.playerIP());
+            out.writeLong(alertInfo.timestamp().atZone(ZoneId.systemDefault()).toInstant().toEpochMilli());
+            out.writeUTF(result.ip() == null ? "" : result.ip());
+            out.writeBoolean(result.vpn());
+            out.writeBoolean(result.proxy());
+            out.writeBoolean(result.tor());
+            out.writeBoolean(result.datacenter());
+            out.writeBoolean(result.residential());
+            out.writeDouble(result.threatScore());
+            out.writeUTF(result.country() == null ? "unknown" : result.country());
+            out.writeUTF(result.provider() == null ? "unknown" : result.provider());
+            out.writeLong(result.timestamp());
+        }
+        return bytes.toByteArray();
+    }
+
+    private static AlertInfo decode(byte[] record) throws IOException {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            String username = in.readUTF();
+            String playerIP = in.readUTF();
+            LocalDateTime timestamp = LocalDateTime.ofInstant(Instant.ofEpochMilli(in.readLong()), ZoneId.systemDefault());
+            IPCheckResult result = new IPCheckResult(in.readUTF(), in.readBoolean(), in.readBoolean(), in.readBoolean(),
+                    in.readBoolean(), in.readBoolean(), in.readDouble(), in.readUTF(), in.readUTF(), in.readLong());
+
+            return AlertInfo.builder()
+                    .username(username)
+                    .playerIP(playerIP)
+                    .result(result)
+                    .timestamp(timestamp)
+                    .build();
+        }
+    }
+}
@@ -0,0 +1,398 @@
+package it.mattiolservices.mantivpn.discord;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.alert.info.AlertInfo;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.type.CheckType;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.UncheckedIOException;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+
+// Shared by every sink, each sink writes into its own buffer
+@Slf4j
+public class DiscordPayloadWriter {
+
+    private static final DateTimeFormatter TIME_FORMAT = DateTimeFormatter.ofPattern("HH:mm:ss");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+    private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private static final SerializableString USERNAME = new SerializedString("username");
+    private static final SerializableString AVATAR_URL = new SerializedString("avatar_url");
+    private static final SerializableString CONTENT = new SerializedString("content");
+    private static final SerializableString EMBEDS = new SerializedString("embeds");
+    private static final SerializableString TITLE = new SerializedString("title");
+    private static final SerializableString DESCRIPTION = new SerializedString("description");
+    private static final SerializableString COLOR = new SerializedString("color");
+    private static final SerializableString TIMESTAMP = new SerializedString("timestamp");
+    private static final SerializableString FIELDS = new SerializedString("fields");
+    private static final SerializableString AUTHOR = new SerializedString("author");
+    private static final SerializableString FOOTER = new SerializedString("footer");
+    private static final SerializableString THUMBNAIL = new SerializedString("thumbnail");
+    private static final SerializableString IMAGE = new SerializedString("image");
+    private static final SerializableString NAME = new SerializedString("name");
+    private static final SerializableString VALUE = new SerializedString("value");
+    private static final SerializableString INLINE = new SerializedString("inline");
+    private static final SerializableString TEXT = new SerializedString("text");
+    private static final SerializableString ICON_URL = new SerializedString("icon_url");
+    private static final SerializableString URL = new SerializedString("url");
+
+    private final JsonFactory jsonFactory;
+    private volatile PayloadParts payloadParts;
+
+    public DiscordPayloadWriter() {
+        this.jsonFactory = new JsonFactory();
+        reload();
+    }
+
+    // Streams the payload into the buffer, only the parts depending on the alert are serialised here
+    public void write(AlertInfo alertInfo, PayloadBuffer payloadBuffer) throws IOException {
+        PayloadParts parts = payloadParts;
+        payloadBuffer.reset();
+
+        try (JsonGenerator generator = jsonFactory.createGenerator(payloadBuffer, JsonEncoding.UTF8)) {
+            generator.writeStartObject();
+            generator.writeFieldName(USERNAME);
+            generator.writeString(parts.username());
+            if (parts.avatarUrl() != null) {
+                generator.writeFieldName(AVATAR_URL);
+                generator.writeString(parts.avatarUrl());
+            }
+
+            if (!parts.content().isEmpty()) {
+                generator.writeFieldName(CONTENT);
+                generator.writeString(processPlaceholders(parts.content(), alertInfo));
+            }
+
+            if (parts.embedEnabled()) {
+                generator.writeFieldName(EMBEDS);
+                generator.writeStartArray();
+                writeEmbed(generator, parts, alertInfo);
+                generator.writeEndArray();
+            }
+
+            generator.writeEndObject();
+        }
+    }
+
+    private void writeEmbed(JsonGenerator generator, PayloadParts parts, AlertInfo alertInfo) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(TITLE);
+        generator.writeString(processPlaceholders(parts.title(), alertInfo));
+        generator.writeFieldName(DESCRIPTION);
+        generator.writeString(processPlaceholders(parts.description(), alertInfo));
+        generator.writeFieldName(COLOR);
+        generator.writeNumber(getEmbedColor(alertInfo.result()));
+
+        if (parts.timestamp()) {
+            generator.writeFieldName(TIMESTAMP);
+            generator.writeString(alertInfo.timestamp().atZone(java.time.ZoneId.systemDefault()).toInstant().toString());
+        }
+
+        if (parts.fieldsEnabled()) {
+            generator.writeFieldName(FIELDS);
+            writeEmbedFields(generator, parts, alertInfo);
+        }
+
+        writeLabelled(generator, AUTHOR, parts.author(), alertInfo);
+        writeLabelled(generator, FOOTER, parts.footer(), alertInfo);
+
+        if (parts.thumbnail() != null) {
+            generator.writeFieldName(THUMBNAIL);
+            generator.writeRawValue(parts.thumbnail());
+        }
+        if (parts.image() != null) {
+            generator.writeFieldName(IMAGE);
+            generator.writeRawValue(parts.image());
+        }
+
+        generator.writeEndObject();
+    }
+
+    private void writeEmbedFields(JsonGenerator generator, PayloadParts parts, AlertInfo alertInfo) throws IOException {
+        generator.writeStartArray();
+
+        if (parts.customFields().isEmpty()) {
+            writeField(generator, "Player", alertInfo.username(), true);
+            writeField(generator, "IP Address", alertInfo.playerIP(), true);
+            writeField(generator, "Detection", buildDetectionTypes(alertInfo.result()), true);
+            writeField(generator, "Score", String.valueOf(alertInfo.result().threatScore()), true);
+            writeField(generator, "Time", processPlaceholders("%time%", alertInfo), true);
+        } else {
+            for (FieldTemplate field : parts.customFields()) {
+                writeField(generator,
+                        processPlaceholders(field.name(), alertInfo),
+                        processPlaceholders(field.value(), alertInfo),
+                        field.inline());
+            }
+        }
+
+        generator.writeEndArray();
+    }
+
+    private void writeField(JsonGenerator generator, String name, String value, boolean inline) throws IOException {
+        generator.writeStartObject();
+        generator.writeFieldName(NAME);
+        generator.writeString(name);
+        generator.writeFieldName(VALUE);
+        generator.writeString(value);
+        generator.writeFieldName(INLINE);
+        generator.writeBoolean(inline);
+        generator.writeEndObject();
+    }
+
+    // Labels without placeholders were written out whole when the config was loaded
+    private void writeLabelled(JsonGenerator generator, SerializableString fieldName, Labelled labelled,
+                               AlertInfo alertInfo) throws IOException {
+        if (labelled == null) {
+            return;
+        }
+
+        generator.writeFieldName(fieldName);
+        if (labelled.raw() != null) {
+            generator.writeRawValue(labelled.raw());
+            return;
+        }
+
+        generator.writeStartObject();
+        generator.writeFieldName(labelled.textField());
+        generator.writeString(processPlaceholders(labelled.text(), alertInfo));
+        if (labelled.iconUrl() != null) {
+            generator.writeFieldName(ICON_URL);
+            generator.writeString(labelled.iconUrl());
+        }
+        if (labelled.url() != null) {
+            generator.writeFieldName(URL);
+            generator.writeString(labelled.url());
+        }
+        generator.writeEndObject();
+    }
+
+    public void reload() {
+        ConfigManager config = MAntiVPN.getConfigManager();
+
+        List<FieldTemplate> customFields = new ArrayList<>();
+        for (String fieldKey : config.getDiscord().getStringList("discord.embed.fields.custom")) {
+            customFields.add(new FieldTemplate(
+                    config.getDiscord().getString("discord.embed.fields." + fieldKey + ".name", fieldKey),
+                    config.getDiscord().getString("discord.embed.fields." + fieldKey + ".value", "N/A"),
+                    config.getDiscord().getBoolean("discord.embed.fields." + fieldKey + ".inline", true)));
+        }
+
+        Labelled author = null;
+        if (config.getDiscord().getBoolean("discord.embed.author.enabled", false)) {
+            author = labelled(NAME,
+                    config.getDiscord().getString("discord.embed.author.name", "MAntiVPN"),
+                    config.getDiscord().getString("discord.embed.author.icon", ""),
+                    config.getDiscord().getString("discord.embed.author.url", ""));
+        }
+
+        Labelled footer = null;
+        if (config.getDiscord().getBoolean("discord.embed.footer.enabled", true)) {
+            footer = labelled(TEXT,
+                    config.getDiscord().getString("discord.embed.footer.text", "MAntiVPN Alert System"),
+                    config.getDiscord().getString("discord.embed.footer.icon", ""),
+                    "");
+        }
+
+        String avatarUrl = config.getDiscord().getString("discord.bot-avatar-url", "");
+        this.payloadParts = new PayloadParts(
+                new SerializedString(config.getDiscord().getString("discord.bot-username", "MAntiVPN")),
+                avatarUrl.isEmpty() ? null : new SerializedString(avatarUrl),
+                config.getDiscord().getString("discord.content", ""),
+                config.getDiscord().getBoolean("discord.embed.enabled", true),
+                config.getDiscord().getString("discord.embed.title", "🚨 VPN/Proxy Detection Alert"),
+                config.getDiscord().getString("discord.embed.description",
+                        "**Player:** %player%\n**IP:** %ip%\n**Detection:** %detection%\n**Score:** %score%\n**Time:** %time%"),
+                config.getDiscord().getBoolean("discord.embed.timestamp", true),
+                config.getDiscord().getBoolean("discord.embed.fields.enabled", false),
+                List.copyOf(customFields),
+                author,
+                footer,
+                urlObject(config.getDiscord().getString("discord.embed.thumbnail", "")),
+                urlObject(config.getDiscord().getString("discord.embed.image", "")));
+    }
+
+    private Labelled labelled(SerializableString textField, String text, String iconUrl, String url) {
+        SerializedString icon = iconUrl.isEmpty() ? null : new SerializedString(iconUrl);
+        SerializedString link = url.isEmpty() ? null : new SerializedString(url);
+        if (text.indexOf('%') >= 0) {
+            return new Labelled(textField, text, icon, link, null);
+        }
+
+        return new Labelled(textField, text, icon, link, serialize(generator -> {
+            generator.writeStartObject();
+            generator.writeFieldName(textField);
+            generator.writeString(translateColors(text));
+            if (icon != null) {
+                generator.writeFieldName(ICON_URL);
+                generator.writeString(icon);
+            }
+            if (link != null) {
+                generator.writeFieldName(URL);
+                generator.writeString(link);
+            }
+            generator.writeEndObject();
+        }));
+    }
+
+    private SerializedString urlObject(String url) {
+        if (url.isEmpty()) {
+            return null;
+        }
+
+        return serialize(generator -> {
+            generator.writeStartObject();
+            generator.writeFieldName(URL);
+            generator.writeString(url);
+            generator.writeEndObject();
+        });
+    }
+
+    private SerializedString serialize(JsonWriter writer) {
+        StringWriter out = new StringWriter();
+        try (JsonGenerator generator = jsonFactory.createGenerator(out)) {
+            writer.write(generator);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return new SerializedString(out.toString());
+    }
+
+    private String processPlaceholders(String text, AlertInfo alertInfo) {
+        if (text == null || text.isEmpty()) {
+            return text;
+        }
+
+        java.time.ZonedDateTime zonedDateTime = alertInfo.timestamp().atZone(java.time.ZoneId.systemDefault());
+
+        String result = text
+                .replace("%player%", alertInfo.username())
+                .replace("%ip%", alertInfo.playerIP())
+                .replace("%detection%", buildDetectionTypes(alertInfo.result()))
+                .replace("%score%", String.valueOf(alertInfo.result().threatScore()))
+                .replace("%time%", zonedDateTime.format(TIME_FORMAT))
+                .replace("%date%", zonedDateTime.format(DATE_FORMAT))
+                .replace("%datetime%", zonedDateTime.format(DATE_TIME_FORMAT))
+                .replace("%timestamp%", String.valueOf(zonedDateTime.toEpochSecond()));
+
+        IPCheckResult ipResult = alertInfo.result();
+        if (ipResult != null) {
+            result = result
+                    .replace("%vpn%", String.valueOf(ipResult.vpn()))
+                    .replace("%proxy%", String.valueOf(ipResult.proxy()))
+                    .replace("%tor%", String.valueOf(ipResult.tor()))
+                    .replace("%datacenter%", String.valueOf(ipResult.datacenter()))
+                    .replace("%residential%", String.valueOf(ipResult.residential()));
+        }
+
+        return translateColors(result);
+    }
+
+    private String translateColors(String text) {
+        return text
+                .replace("&0", "```diff\n-")
+                .replace("&1", "```css\n")
+                .replace("&2", "```css\n")
+                .replace("&3", "```css\n")
+                .replace("&4", "```diff\n-")
+                .replace("&5", "```css\n")
+                .replace("&6", "```fix\n")
+                .replace("&7", "```")
+                .replace("&8", "```")
+                .replace("&9", "```css\n")
+                .replace("&a", "```diff\n+")
+                .replace("&b", "```css\n")
+                .replace("&c", "```diff\n-")
+                .replace("&d", "```css\n")
+                .replace("&e", "```fix\n")
+                .replace("&f", "```")
+                .replace("&r", "```");
+    }
+
+    private int getEmbedColor(IPCheckResult result) {
+        ConfigManager config = MAntiVPN.getConfigManager();
+        double score = result.threatScore();
+
+        if (score >= config.getDiscord().getInt("discord.colors.high-threshold", 90)) {
+            return config.getDiscord().getInt("discord.colors.high-threat", 0xFF0000);
+        } else if (score >= config.getDiscord().getInt("discord.colors.medium-threshold", 70)) {
+            return config.getDiscord().getInt("discord.colors.medium-threat", 0xFF8C00);
+        } else if (score >= config.getDiscord().getInt("discord.colors.low-threshold", 50)) {
+            return config.getDiscord().getInt("discord.colors.low-threat", 0xFFFF00);
+        } else {
+            return config.getDiscord().getInt("discord.colors.info-threat", 0x00FF00);
+        }
+    }
+
+    private String buildDetectionTypes(IPCheckResult result) {
+        if (result == null) {
+            return "Unknown";
+        }
+
+        ConfigManager config = MAntiVPN.getConfigManager();
+        List<String> detections = new ArrayList<>();
+
+        try {
+            for (CheckType checkType : CheckType.values()) {
+                switch (checkType) {
+                    case VPN:
+                        if (config.getConfig().getBoolean(checkType.getConfigKey()) && result.vpn()) {
+                            detections.add(checkType.getDisplayName());
+                        }
+                        break;
+                    case PROXY:
+                        if (config.getConfig().getBoolean(checkType.getConfigKey()) && result.proxy()) {
+                            detections.add(checkType.getDisplayName());
+                        }
+                        break;
+                    case TOR:
+                        if (config.getConfig().getBoolean(checkType.getConfigKey()) && result.tor()) {
+                            detections.add(checkType.getDisplayName());
+                        }
+                        break;
+                    case DATACENTER:
+                        if (config.getConfig().getBoolean(checkType.getConfigKey()) && result.datacenter() && !result.residential()) {
+                            detections.add(checkType.getDisplayName());
+                        }
+                        break;
+                }
+            }
+        } catch (Exception e) {
+            log.warn("[Discord] Error building detection types: {}", e.getMessage());
+            return "Error";
+        }
+
+        if (detections.isEmpty()) {
+            return "Unknown";
+        }
+
+        String separator = config.getDiscord().getString("discord.detection-separator", ", ");
+        return String.join(separator, detections);
+    }
+
+    private interface JsonWriter {
+        void write(JsonGenerator generator) throws IOException;
+    }
+
+    private record FieldTemplate(String name, String value, boolean inline) {}
+
+    // raw holds the whole object when the text has no placeholders
+    private record Labelled(SerializableString textField, String text, SerializableString iconUrl,
+                            SerializableString url, SerializableString raw) {}
+
+    private record PayloadParts(SerializableString username, SerializableString avatarUrl, String content,
+                                boolean embedEnabled, String title, String description, boolean timestamp,
+                                boolean fieldsEnabled, List<FieldTemplate> customFields, Labelled author,
+                                Labelled footer, SerializableString thumbnail, SerializableString image) {}
+}
@@ -0,0 +1,15 @@
+package it.mattiolservices.mantivpn.discord;
+
+import java.io.ByteArrayOutputStream;
+
+// Exposes the backing array so a payload reaches OkHttp without another copy
+final class PayloadBuffer extends ByteArrayOutputStream {
+
+    PayloadBuffer(int size) {
+        super(size);
+    }
+
+    byte[] array() {
+        return buf;
+    }
+}
@@ -0,0 +1,81 @@
+package it.mattiolservices.mantivpn.discord;
+
+import dev.dejvokep.boostedyaml.block.implementation.Section;
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.alert.info.AlertInfo;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.type.CheckType;
+import lombok.extern.slf4j.Slf4j;
+
+import java.util.EnumSet;
+import java.util.Locale;
+import java.util.Set;
+
+// Which alerts a sink receives, an empty check list matches every detection
+@Slf4j
+public record WebhookRoute(double minScore, Set<CheckType> checks, FloodRule flood) {
+
+    public static final WebhookRoute ALL = new WebhookRoute(0.0, EnumSet.noneOf(CheckType.class), FloodRule.ANY);
+
+    public static WebhookRoute load(String sinkName, Section section) {
+        Set<CheckType> checks = EnumSet.noneOf(CheckType.class);
+        for (String check : section.getStringList("checks")) {
+            try {
+                checks.add(CheckType.valueOf(check.toUpperCase(Locale.ROOT).replace('-', '_')));
+            } catch (IllegalArgumentException e) {
+                log.warn("[Discord] Unknown check '{}' in the rules of sink {}, ignoring it", check, sinkName);
+            }
+        }
+
+        FloodRule flood;
+        try {
+            flood = FloodRule.valueOf(section.getString("flood", "any").toUpperCase(Locale.ROOT));
+        } catch (IllegalArgumentException e) {
+            log.warn("[Discord] Unknown flood rule '{}' for sink {}, using any", section.getString("flood"), sinkName);
+            flood = FloodRule.ANY;
+        }
+
+        return new WebhookRoute(section.getDouble("min-score", 0.0), checks, flood);
+    }
+
+    public boolean matches(AlertInfo alertInfo, boolean floodMode) {
+        IPCheckResult result = alertInfo.result();
+        if (result.threatScore() < minScore) {
+            return false;
+        }
+
+        if ((flood == FloodRule.SKIP && floodMode) || (flood == FloodRule.ONLY && !floodMode)) {
+            return false;
+        }
+
+        if (checks.isEmpty()) {
+            return true;
+        }
+
+        for (CheckType check : checks) {
+            if (detected(check, result)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean detected(CheckType check, IPCheckResult result) {
+        return switch (check) {
+            case VPN -> result.vpn();
+            case PROXY -> result.proxy();
+            case TOR -> result.tor();
+            case DATACENTER -> result.datacenter() && !result.residential();
+            case HIGH_RISK -> result.threatScore() > MAntiVPN.getConfigManager().getConfig().getDouble(check.getConfigKey());
+        };
+    }
+
+    public enum FloodRule {
+        // Alerts are delivered whether or not a flood is going on
+        ANY,
+        // Quiet during floods, for noisy channels
+        SKIP,
+        // Only alerts raised during floods
+        ONLY
+    }
+}
@@ -0,0 +1,280 @@
+package it.mattiolservices.mantivpn.discord;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.alert.info.AlertInfo;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+// One webhook with its own queue, rate limit and worker, a slow channel never holds up the others
+// Alerts that can't be delivered go to the spool, the worker replays it while the queue is idle
+@Slf4j
+public class WebhookSink {
+
+    private static final MediaType JSON = MediaType.get("application/json");
+    private static final int MAX_ATTEMPTS = 3;
+
+    @Getter
+    private final String name;
+    private final OkHttpClient httpClient;
+    private final DiscordPayloadWriter payloadWriter;
+    private final Consumer<AlertInfo> onDelivered;
+    private final AlertSpool spool;
+    private final BlockingQueue<PendingAlert> queue;
+    private final PayloadBuffer payloadBuffer;
+    private final Thread worker;
+    @Getter
+    private volatile Settings settings;
+    private volatile boolean running;
+    private long nextSendNanos;
+    private volatile long retryAtNanos;
+    // Cancelled on shutdown, so the worker stops without an interrupt that would close the spool's channels
+    private volatile Call inFlight;
+
+    // A null spool drops what can't be delivered, as before
+    public WebhookSink(String name, Settings settings, OkHttpClient httpClient, DiscordPayloadWriter payloadWriter,
+                       Consumer<AlertInfo> onDelivered, AlertSpool spool) {
+        this.name = name;
+        this.settings = settings;
+        this.httpClient = httpClient;
+        this.payloadWriter = payloadWriter;
+        this.onDelivered = onDelivered;
+        this.spool = spool;
+        this.queue = new ArrayBlockingQueue<>(Math.max(1, settings.queueSize()));
+        this.payloadBuffer = new PayloadBuffer(2048);
+        this.running = true;
+        this.nextSendNanos = System.nanoTime();
+        this.retryAtNanos = System.nanoTime();
+        this.worker = new Thread(this::run, "DiscordWebhook-" + name);
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    // The queue size is fixed when the sink starts
+    public void update(Settings settings) {
+        this.settings = settings;
+    }
+
+    public CompletableFuture<Void> offer(AlertInfo alertInfo) {
+        // While the webhook is failing new alerts queue up on disk behind the ones already there
+        if (spool != null && System.nanoTime() - retryAtNanos < 0) {
+            spoolAlert(alertInfo);
+            return CompletableFuture.completedFuture(null);
+        }
+
+        PendingAlert pending = new PendingAlert(alertInfo, new CompletableFuture<>());
+        if (!queue.offer(pending)) {
+            if (spool != null) {
+                spoolAlert(alertInfo);
+            } else {
+                log.warn("[Discord] Queue of sink {} is full, dropping the alert for player {}", name, alertInfo.username());
+            }
+            pending.done().complete(null);
+        }
+        return pending.done();
+    }
+
+    public int getQueued() {
+        return queue.size();
+    }
+
+    public long getSpooledBytes() {
+        return spool == null ? 0L : spool.getSpooledBytes();
+    }
+
+    private void run() {
+        while (running) {
+            boolean replayReady = spool != null && System.nanoTime() - retryAtNanos >= 0 && spool.hasPending();
+            PendingAlert pending;
+            try {
+                pending = replayReady ? queue.poll() : queue.poll(1, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            try {
+                if (pending != null) {
+                    if (!deliver(pending.alertInfo())) {
+                        spoolAlert(pending.alertInfo());
+                    }
+                } else if (replayReady) {
+                    replayNext();
+                }
+            } finally {
+                if (pending != null) {
+                    pending.done().complete(null);
+                }
+            }
+        }
+    }
+
+    // Live alerts go first, the spool is replayed one alert at a time at the sink's rate
+    private void replayNext() {
+        try {
+            AlertInfo alertInfo = spool.peek();
+            if (alertInfo != null && deliver(alertInfo)) {
+                spool.commit();
+            }
+        } catch (IOException e) {
+            log.error("[Discord] Failed to read the alert spool of sink {}: {}", name, e.getMessage());
+            retryAtNanos = System.nanoTime() + retryDelayNanos();
+        }
+    }
+
+    private void spoolAlert(AlertInfo alertInfo) {
+        if (spool == null) {
+            return;
+        }
+
+        // A FileChannel written by an interrupted thread closes itself, the flag is restored afterwards
+        boolean interrupted = Thread.interrupted();
+        try {
+            spool.append(alertInfo);
+        } catch (IOException e) {
+            log.error("[Discord] Failed to spool the alert for player {} on sink {}: {}",
+                    alertInfo.username(), name, e.getMessage());
+        } finally {
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    // False when the alert should be kept for a later attempt, rejected payloads are not retried
+    private boolean deliver(AlertInfo alertInfo) {
+        try {
+            return send(alertInfo);
+        } catch (IOException e) {
+            log.error("[Discord] Failed to send webhook for player {} to sink {}: {}",
+                    alertInfo.username(), name, e.getMessage());
+            retryAtNanos = System.nanoTime() + retryDelayNanos();
+            return false;
+        }
+    }
+
+    // Gives up, keeping the alert, once shutdown starts
+    private boolean send(AlertInfo alertInfo) throws IOException {
+        for (int attempt = 1; attempt <= MAX_ATTEMPTS; attempt++) {
+            long waitNanos;
+            while (running && (waitNanos = nextSendNanos - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(this, waitNanos);
+            }
+            if (!running) {
+                return false;
+            }
+
+            Settings current = settings;
+            payloadWriter.write(alertInfo, payloadBuffer);
+
+            // The buffer is only reused by the next alert, after this call has finished with it
+            Request request = new Request.Builder()
+                    .url(current.webhookUrl())
+                    .post(RequestBody.create(payloadBuffer.array(), JSON, 0, payloadBuffer.size()))
+                    .addHeader("User-Agent", "MAntiVPN-Discord-Webhook/1.0")
+                    .addHeader("Content-Type", "application/json")
+                    .build();
+
+            Call call = httpClient.newCall(request);
+            inFlight = call;
+            if (!running) {
+                call.cancel();
+            }
+
+            try (Response response = call.execute()) {
+                nextSendNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(current.rateLimitMs());
+                if (response.isSuccessful()) {
+                    onDelivered.accept(alertInfo);
+                    return true;
+                }
+
+                if (response.code() == 429) {
+                    // Discord tells how long this webhook has to wait, only this sink pauses
+                    nextSendNanos = System.nanoTime() + retryAfterNanos(response);
+                    continue;
+                }
+
+                String responseBody = response.body() != null ? response.body().string() : "No response body";
+                log.error("[Discord] Webhook request to sink {} failed with status {}: {}", name, response.code(), responseBody);
+                if (response.code() >= 500) {
+                    retryAtNanos = System.nanoTime() + retryDelayNanos();
+                    return false;
+                }
+                return true;
+            } finally {
+                inFlight = null;
+            }
+        }
+
+        log.error("[Discord] Sink {} stayed rate limited, keeping the alert for player {}", name, alertInfo.username());
+        retryAtNanos = nextSendNanos;
+        return false;
+    }
+
+    private long retryDelayNanos() {
+        return TimeUnit.SECONDS.toNanos(Math.max(1L, MAntiVPN.getConfigManager().getDiscord().getLong("discord.spool.retry-seconds", 30L)));
+    }
+
+    private long retryAfterNanos(Response response) {
+        String retryAfter = response.header("Retry-After");
+        if (retryAfter != null) {
+            try {
+                return (long) (Double.parseDouble(retryAfter) * 1_000_000_000L);
+            } catch (NumberFormatException ignored) {
+            }
+        }
+        return TimeUnit.MILLISECONDS.toNanos(Math.max(1000L, settings.rateLimitMs()));
+    }
+
+    // The worker is stopped before the queue is drained and the spool closed, its current alert is spooled by itself
+    public void shutdown() {
+        running = false;
+        Call call = inFlight;
+        if (call != null) {
+            call.cancel();
+        }
+        LockSupport.unpark(worker);
+
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(5));
+            if (worker.isAlive()) {
+                worker.interrupt();
+                worker.join(TimeUnit.SECONDS.toMillis(5));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        if (worker.isAlive()) {
+            log.warn("[Discord] Worker of sink {} did not stop, the alert it is sending may be lost", name);
+        }
+
+        List<PendingAlert> remaining = new ArrayList<>();
+        queue.drainTo(remaining);
+        if (!remaining.isEmpty()) {
+            if (spool != null) {
+                remaining.forEach(pending -> spoolAlert(pending.alertInfo()));
+                log.info("[Discord] Spooled {} queued alerts of sink {} for the next start", remaining.size(), name);
+            } else {
+                log.warn("[Discord] {} alerts still queued for sink {} were not sent", remaining.size(), name);
+            }
+            remaining.forEach(pending -> pending.done().complete(null));
+        }
+
+        if (spool != null) {
+            spool.close();
+        }
+    }
+
+    public record Settings(String webhookUrl, int rateLimitMs, int queueSize, WebhookRoute route) {}
+
+    private record PendingAlert(AlertInfo alertInfo, CompletableFuture<Void> done) {}
+}
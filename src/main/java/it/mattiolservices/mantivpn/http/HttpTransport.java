@@ -0,0 +1,128 @@
+package it.mattiolservices.mantivpn.http;
+
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import lombok.extern.slf4j.Slf4j;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.ConnectionPool;
+import okhttp3.Dispatcher;
+import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
+import okhttp3.Request;
+import okhttp3.Response;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+@Slf4j
+public class HttpTransport {
+
+    private final OkHttpClient baseClient;
+    private final List<String> warmTargets;
+    private final ScheduledExecutorService keepAliveExecutor;
+
+    public HttpTransport() {
+        ConfigManager config = MAntiVPN.getConfigManager();
+
+        Dispatcher dispatcher = new Dispatcher();
+        dispatcher.setMaxRequests(Math.max(1, config.getConfig().getInt("http.max-requests", 64)));
+        dispatcher.setMaxRequestsPerHost(Math.max(1, config.getConfig().getInt("http.max-requests-per-host", 16)));
+
+        long keepAliveSeconds = Math.max(10L, config.getConfig().getLong("http.pool.keep-alive-seconds", 300L));
+        ConnectionPool connectionPool = new ConnectionPool(
+                Math.max(1, config.getConfig().getInt("http.pool.max-idle-connections", 8)),
+                keepAliveSeconds, TimeUnit.SECONDS);
+
+        OkHttpClient.Builder builder = new OkHttpClient.Builder()
+                .dispatcher(dispatcher)
+                .connectionPool(connectionPool);
+        if (config.getConfig().getBoolean("http.http2", true)) {
+            builder.protocols(List.of(Protocol.HTTP_2, Protocol.HTTP_1_1));
+        } else {
+            builder.protocols(List.of(Protocol.HTTP_1_1));
+        }
+        this.baseClient = builder.build();
+
+        this.warmTargets = config.getConfig().getStringList("http.warm-targets", List.of("https://antivpn.cc/"));
+        this.keepAliveExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread t = new Thread(r, "AntiVPN-HttpKeepAlive");
+            t.setDaemon(true);
+            return t;
+        });
+
+        // Probe before the pool's idle timeout so the warm connection is never evicted
+        long probeSeconds = Math.min(config.getConfig().getLong("http.keep-alive-probe-seconds", 60L), keepAliveSeconds - 5L);
+        if (config.getConfig().getBoolean("http.prewarm", true)) {
+            this.keepAliveExecutor.execute(this::warmUp);
+            if (probeSeconds > 0) {
+                this.keepAliveExecutor.scheduleWithFixedDelay(this::warmUp, probeSeconds, probeSeconds, TimeUnit.SECONDS);
+            }
+        }
+    }
+
+    // Every client shares the pool and dispatcher, only timeouts differ
+    public OkHttpClient client(long connectTimeoutMillis, long readTimeoutMillis) {
+        return baseClient.newBuilder()
+                .connectTimeout(connectTimeoutMillis, TimeUnit.MILLISECONDS)
+                .readTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .writeTimeout(readTimeoutMillis, TimeUnit.MILLISECONDS)
+                .build();
+    }
+
+    public int getIdleConnections() {
+        return baseClient.connectionPool().idleConnectionCount();
+    }
+
+    public int getOpenConnections() {
+        return baseClient.connectionPool().connectionCount();
+    }
+
+    private void warmUp() {
+        for (String target : warmTargets) {
+            Request request;
+            try {
+                request = new Request.Builder()
+                        .url(target)
+                        .head()
+                        .addHeader("User-Agent", "MAntiVPN-KeepAlive/1.0")
+                        .build();
+            } catch (IllegalArgumentException e) {
+                log.warn("[!] Invalid HTTP warm-up target {}: {}", target, e.getMessage());
+                continue;
+            }
+
+            baseClient.newCall(request).enqueue(new Callback() {
+                @Override
+                public void onResponse(Call call, Response response) {
+                    response.close();
+                }
+
+                @Override
+                public void onFailure(Call call, IOException e) {
+                    if (MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
+                        log.warn("[!] HTTP keep-alive probe to {} failed: {}", target, e.getMessage());
+                    }
+                }
+            });
+        }
+    }
+
+    public void shutdown() {
+        keepAliveExecutor.shutdown();
+        try {
+            if (!keepAliveExecutor.awaitTermination(5, TimeUnit.SECONDS)) {
+                keepAliveExecutor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            keepAliveExecutor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+
+        baseClient.dispatcher().executorService().shutdown();
+        baseClient.connectionPool().evictAll();
+    }
+}
@@ -0,0 +1,69 @@
+package it.mattiolservices.mantivpn.listener;
+
+import com.velocitypowered.api.event.PostOrder;
+import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.connection.PreLoginEvent;
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.lookup.IPLookupService;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.utils.AntiVPNUtils;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import net.kyori.adventure.text.Component;
+import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+@Slf4j
+@RequiredArgsConstructor
+public class EarlyRejectListener {
+
+    private final IPLookupService lookupService;
+    private final LongAdder rejected = new LongAdder();
+
+    // Runs on the connection's own thread ahead of every other handler, so only in-memory lookups happen here
+    // IPs it doesn't know are left to JoinListener, known-bad ones never reach the pipeline, audit or alerts
+    @Subscribe(order = PostOrder.FIRST, async = false)
+    public void onPreLogin(PreLoginEvent event) {
+        ConfigManager config = MAntiVPN.getConfigManager();
+        if (!config.getConfig().getBoolean("early-reject.enabled", true)) {
+            return;
+        }
+
+        String playerIP = AntiVPNUtils.getPlayerIP(event);
+        if (playerIP == null || config.getConfig().getStringList("whitelist").contains(playerIP)) {
+            return;
+        }
+
+        IPCheckResult result = lookupService.fromBlocklist(playerIP);
+        if (result == null) {
+            // Stored under the detection settings of its lookup, which a reload may have turned off since
+            IPCheckResult blocked = lookupService.getAntiVPNCache().getBlockedResult(playerIP);
+            result = blocked != null && blocked.isSuspicious(config) ? blocked : null;
+        }
+        if (result == null) {
+            result = lookupService.fromRangeList(playerIP);
+        }
+        if (result == null) {
+            result = lookupService.fromTorList(playerIP);
+        }
+        if (result == null) {
+            return;
+        }
+
+        rejected.increment();
+        String reason = MAntiVPN.getInstance().getJoinListener().buildKickReason(result, config);
+        Component kickMessage = LegacyComponentSerializer.legacyAmpersand()
+                .deserialize(config.getMessages().getString("General.kick-message").replace("%result%", reason));
+        event.setResult(PreLoginEvent.PreLoginComponentResult.denied(kickMessage));
+
+        if (config.getConfig().getBoolean("Debug.enable")) {
+            log.info("[!] Rejected {} (IP: {}) early: {}", event.getUsername(), playerIP, reason);
+        }
+    }
+
+    public long getRejected() {
+        return rejected.sum();
+    }
+}
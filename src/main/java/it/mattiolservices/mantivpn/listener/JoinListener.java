@@ -1,11 +1,27 @@
 package it.mattiolservices.mantivpn.listener;
 
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.velocitypowered.api.event.ResultedEvent;
 import com.velocitypowered.api.event.Subscribe;
+import com.velocitypowered.api.event.connection.LoginEvent;
 import com.velocitypowered.api.event.connection.PreLoginEvent;
 import it.mattiolservices.mantivpn.MAntiVPN;
 import it.mattiolservices.mantivpn.alert.manager.AlertManager;
 import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import it.mattiolservices.mantivpn.antivpn.core.QuotaExceededException;
+import it.mattiolservices.mantivpn.antivpn.enforcement.DeferredEnforcer;
+import it.mattiolservices.mantivpn.antivpn.manager.AntiVPNManager;
+import it.mattiolservices.mantivpn.antivpn.pipeline.Decision;
+import it.mattiolservices.mantivpn.antivpn.pipeline.DecisionContext;
+import it.mattiolservices.mantivpn.antivpn.pipeline.DecisionPipeline;
+import it.mattiolservices.mantivpn.antivpn.quota.LookupPriority;
+import it.mattiolservices.mantivpn.antivpn.reputation.ReputationStore;
+import it.mattiolservices.mantivpn.antivpn.trace.LoginTrace;
+import it.mattiolservices.mantivpn.antivpn.trace.TraceRecorder;
 import it.mattiolservices.mantivpn.antivpn.type.CheckType;
+import it.mattiolservices.mantivpn.audit.AuditLogManager;
+import it.mattiolservices.mantivpn.audit.AuditRecord;
 import it.mattiolservices.mantivpn.config.ConfigManager;
 import it.mattiolservices.mantivpn.utils.AntiVPNUtils;
 import lombok.RequiredArgsConstructor;
@@ -13,16 +29,37 @@ import lombok.extern.slf4j.Slf4j;
 import net.kyori.adventure.text.Component;
 import net.kyori.adventure.text.serializer.legacy.LegacyComponentSerializer;
 
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 
 @Slf4j
 @RequiredArgsConstructor
 public class JoinListener {
 
+    // Only answers the API gave count towards trust, fallbacks like range lists never vouch for a pair
+    private static final Set<String> TRUST_SOURCES = Set.of("remote", "cache", "shared-cache");
+
     private final AlertManager alertManager;
+    private final DecisionPipeline pipeline;
+    // Simulated logins neither alert, audit nor feed the warm-up tracker
+    private final boolean recordOutcome;
+    // Account expected for each trust admitted login, checked again once the proxy has authenticated it
+    private final Cache<String, UUID> trustedAdmissions = Caffeine.newBuilder()
+            .expireAfterWrite(1, TimeUnit.MINUTES)
+            .build();
 
     @Subscribe
     public void onPreLogin(PreLoginEvent event) {
+        // Already turned away, by EarlyRejectListener or another plugin
+        if (!event.getResult().isAllowed()) {
+            return;
+        }
+
+        long startNanos = System.nanoTime();
         String player = event.getUsername();
 
         String playerIP = AntiVPNUtils.getPlayerIP(event);
@@ -32,61 +69,150 @@ public class JoinListener {
             return;
         }
 
-        if (MAntiVPN.getConfigManager().getConfig().getStringList("whitelist").contains(playerIP)) {
-            if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
-                log.info("[!] The player {} is whitelisted, bypassing check", player);
+        long budgetMillis = MAntiVPN.getConfigManager().getConfig().getLong("antivpn.decision-budget-ms", 0L);
+        long deadlineNanos = budgetMillis > 0 ? startNanos + budgetMillis * 1_000_000L : AntiVPNManager.NO_DEADLINE;
+
+        TraceRecorder traceRecorder = traceRecorder();
+        LoginTrace trace = traceRecorder != null && MAntiVPN.getConfigManager().getConfig().getBoolean("trace.enabled", true)
+                ? traceRecorder.begin(player, playerIP, startNanos) : null;
+
+        Decision decision;
+        try {
+            decision = pipeline.decide(new DecisionContext(player, expectedUniqueId(event), playerIP, startNanos, deadlineNanos, trace));
+        } catch (Exception e) {
+            String source = errorSource(e);
+            if (admitLocally(e)) {
+                if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
+                    log.info("[!] API quota refused the lookup for player {} (IP: {}), admitting on the local checks", player, playerIP);
+                }
+                audit(player, playerIP, null, "ALLOWED", source, startNanos);
+                event.setResult(PreLoginEvent.PreLoginComponentResult.allowed());
+                return;
+            }
+
+            log.error("[!] Failed to get async result for player {}: {}", player, e.getMessage());
+            if (MAntiVPN.getConfigManager().getConfig().getBoolean("antivpn.allow-on-error")) {
+                audit(player, playerIP, null, "ALLOWED_ON_ERROR", source, startNanos);
+                event.setResult(PreLoginEvent.PreLoginComponentResult.allowed());
+            } else {
+                audit(player, playerIP, null, "DENIED_ON_ERROR", source, startNanos);
+                event.setResult(PreLoginEvent.PreLoginComponentResult.denied(errorMessage()));
             }
             return;
         }
 
-        IPCheckResult cachedResult = MAntiVPN.getInstance().getAntiVPNCache().getCachedResult(playerIP);
-        if (cachedResult != null) {
-            if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
-                log.info("[!] Using cached result for player {} (IP: {})", player, playerIP);
+        if (decision == null) {
+            audit(player, playerIP, null, "ALLOWED", "none", startNanos);
+            event.setResult(PreLoginEvent.PreLoginComponentResult.allowed());
+            return;
+        }
+
+        switch (decision.kind()) {
+            case WHITELISTED -> {
+                if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
+                    log.info("[!] The player {} is whitelisted, bypassing check", player);
+                }
+                audit(player, playerIP, null, "WHITELISTED", decision.source(), startNanos);
+            }
+            case TRUSTED -> admitTrusted(event, player, expectedUniqueId(event), playerIP, startNanos);
+            case PROVISIONAL -> admitProvisionally(event, player, expectedUniqueId(event), playerIP, decision.pending(), startNanos);
+            case VERDICT -> {
+                if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
+                    log.info("[!] Using {} result for player {} (IP: {})", decision.source(), player, playerIP);
+                }
+                handleCheckResult(event, player, expectedUniqueId(event), playerIP, decision.result(), decision.source(), startNanos);
             }
+        }
+    }
+
+    // Trusted pairs are admitted without waiting, the API is only asked in the background
+    private void admitTrusted(PreLoginEvent event, String username, UUID uniqueId, String playerIP, long startNanos) {
+        if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
+            log.info("[!] Player {} has a clean history from IP {}, skipping the API", username, playerIP);
+        }
 
-            handleCheckResult(event, player, playerIP, cachedResult);
+        if (recordOutcome) {
+            MAntiVPN.getInstance().getCacheWarmupManager().recordAdmission(playerIP);
+        }
+        audit(username, playerIP, null, "ALLOWED", "reputation", startNanos);
+        event.setResult(PreLoginEvent.PreLoginComponentResult.allowed());
+        if (uniqueId != null) {
+            trustedAdmissions.put(username.toLowerCase(), uniqueId);
+        }
+
+        // Only a sample of trusted logins is asked again, otherwise trust would save no API calls at all
+        ReputationStore reputationStore = recordOutcome ? MAntiVPN.getInstance().getReputationStore() : null;
+        double sample = MAntiVPN.getConfigManager().getConfig().getDouble("reputation.revalidate-sample", 0.1);
+        if (reputationStore == null || ThreadLocalRandom.current().nextDouble() >= sample) {
             return;
         }
 
+        pipeline.getLookupService().checkRemote(playerIP, LookupPriority.LOW).thenAccept(result -> {
+            boolean suspicious = result.isSuspicious(MAntiVPN.getConfigManager());
+            reputationStore.recordVerdict(uniqueId, playerIP, !suspicious);
+            if (suspicious) {
+                alertManager.sendAlert(username, playerIP, result);
+            }
+        });
+    }
+
+    // The API is slow, let the player in now and enforce the verdict when it arrives
+    private void admitProvisionally(PreLoginEvent event, String username, UUID uniqueId, String playerIP,
+                                    CompletableFuture<IPCheckResult> pending, long startNanos) {
         if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
-            log.info("[!] No cached result found for player {} (IP: {}), performing async check", player, playerIP);
+            log.info("[!] Provisionally admitting player {} (IP: {}) while the API answers", username, playerIP);
         }
 
-        CompletableFuture<IPCheckResult> checkFuture =
-                MAntiVPN.getInstance().getAntiVPNManager().checkIPAsync(playerIP);
-
-        try {
-            IPCheckResult result = checkFuture.get();
+        audit(username, playerIP, null, "PROVISIONAL", "remote", startNanos);
+        event.setResult(PreLoginEvent.PreLoginComponentResult.allowed());
 
-            if (!result.isSuspicious(MAntiVPN.getConfigManager())) {
-                MAntiVPN.getInstance().getAntiVPNCache().cacheResult(playerIP, result);
+        pending.whenComplete((result, throwable) -> {
+            Component kickMessage;
+            if (throwable != null) {
+                Throwable cause = throwable.getCause() != null ? throwable.getCause() : throwable;
+                String source = errorSource(cause);
+                if (admitLocally(cause)) {
+                    audit(username, playerIP, null, "DEFERRED_ALLOWED", source, startNanos);
+                    return;
+                }
 
-                if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
-                    log.info("[!] Cached clean result for IP: {}", playerIP);
+                log.error("[!] Deferred check for player {} failed: {}", username, throwable.getMessage());
+                if (MAntiVPN.getConfigManager().getConfig().getBoolean("antivpn.allow-on-error")) {
+                    audit(username, playerIP, null, "DEFERRED_ALLOWED_ON_ERROR", source, startNanos);
+                    return;
                 }
+                audit(username, playerIP, null, "DEFERRED_DENIED_ON_ERROR", source, startNanos);
+                kickMessage = errorMessage();
             } else {
-                if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
-                    log.info("[!] Not caching suspicious result for IP: {}", playerIP);
-                }
+                kickMessage = applyVerdict(username, uniqueId, playerIP, result, "remote", startNanos, true);
             }
 
-            handleCheckResult(event, player, playerIP, result);
+            DeferredEnforcer deferredEnforcer = recordOutcome ? MAntiVPN.getInstance().getDeferredEnforcer() : null;
+            if (kickMessage != null && deferredEnforcer != null) {
+                deferredEnforcer.disconnect(username, playerIP, kickMessage);
+            }
+        });
+    }
 
-        } catch (Exception e) {
-            log.error("[!] Failed to get async result for player {}: {}", player, e.getMessage());
+    private void handleCheckResult(PreLoginEvent event, String username, UUID uniqueId, String playerIP, IPCheckResult result,
+                                   String source, long startNanos) {
+        Component kickMessage = applyVerdict(username, uniqueId, playerIP, result, source, startNanos, false);
+        event.setResult(kickMessage == null
+                ? PreLoginEvent.PreLoginComponentResult.allowed()
+                : PreLoginEvent.PreLoginComponentResult.denied(kickMessage));
+    }
 
-            if (MAntiVPN.getConfigManager().getConfig().getBoolean("antivpn.allow-on-error")) {
-                event.setResult(PreLoginEvent.PreLoginComponentResult.allowed());
-            } else {
-                Component errorMessage = LegacyComponentSerializer.legacyAmpersand()
-                        .deserialize(MAntiVPN.getConfigManager().getMessages().getString("General.error-message"));
-                event.setResult(PreLoginEvent.PreLoginComponentResult.denied(errorMessage));
-            }
+    // Records and alerts on a verdict, returns the kick message when the player has to be refused
+    // A deferred verdict follows a PROVISIONAL record, so it is audited as DEFERRED_ALLOWED or DEFERRED_DENIED
+    private Component applyVerdict(String username, UUID uniqueId, String playerIP, IPCheckResult result, String source,
+                                   long startNanos, boolean deferred) {
+        String prefix = deferred ? "DEFERRED_" : "";
+        ReputationStore reputationStore = recordOutcome ? MAntiVPN.getInstance().getReputationStore() : null;
+        boolean suspicious = result.isSuspicious(MAntiVPN.getConfigManager());
+        if (reputationStore != null && (suspicious || TRUST_SOURCES.contains(source))) {
+            reputationStore.recordVerdict(uniqueId, playerIP, !suspicious);
         }
-    }
 
-    private void handleCheckResult(PreLoginEvent event, String username, String playerIP, IPCheckResult result) {
         if (result.isSuspicious(MAntiVPN.getConfigManager())) {
             String reason = buildKickReason(result, MAntiVPN.getConfigManager());
 
@@ -100,16 +226,99 @@ public class JoinListener {
                 log.info("Denied player {} (Score: {}): {}", username, result.threatScore(), reason);
             }
 
-            alertManager.sendAlert(username, playerIP, result);
-
-            event.setResult(PreLoginEvent.PreLoginComponentResult.denied(kickMessage));
+            if (recordOutcome) {
+                alertManager.sendAlert(username, playerIP, result);
+            }
+            audit(username, playerIP, result, prefix + "DENIED", source, startNanos);
+            return kickMessage;
         } else {
             if(MAntiVPN.getConfigManager().getConfig().getBoolean("Debug.enable")) {
                 log.info("Allowed connection for player {} (Score: {})", username, result.threatScore());
             }
 
-            event.setResult(PreLoginEvent.PreLoginComponentResult.allowed());
+            if (recordOutcome) {
+                MAntiVPN.getInstance().getCacheWarmupManager().recordAdmission(playerIP);
+            }
+            audit(username, playerIP, result, prefix + "ALLOWED", source, startNanos);
+            return null;
+        }
+    }
+
+    // The UUID sent before authentication is only a claim, a trusted login must turn out to be that account
+    @Subscribe
+    public void onLogin(LoginEvent event) {
+        UUID expected = trustedAdmissions.getIfPresent(event.getPlayer().getUsername().toLowerCase());
+        if (expected == null || !event.getResult().isAllowed()) {
+            return;
         }
+
+        trustedAdmissions.invalidate(event.getPlayer().getUsername().toLowerCase());
+        if (!expected.equals(event.getPlayer().getUniqueId())) {
+            log.warn("[!] Player {} was trusted as {} but authenticated as {}, refusing the login",
+                    event.getPlayer().getUsername(), expected, event.getPlayer().getUniqueId());
+            event.setResult(ResultedEvent.ComponentResult.denied(errorMessage()));
+        }
+    }
+
+    // Online mode sends the account UUID, offline mode derives it from the name the same way the proxy does
+    private UUID expectedUniqueId(PreLoginEvent event) {
+        if (!recordOutcome || MAntiVPN.getInstance().getReputationStore() == null) {
+            return null;
+        }
+        if (MAntiVPN.getInstance().getServer().getConfiguration().isOnlineMode()) {
+            return event.getUniqueId();
+        }
+        return UUID.nameUUIDFromBytes(("OfflinePlayer:" + event.getUsername()).getBytes(StandardCharsets.UTF_8));
+    }
+
+    // A login the quota refused is decided by the local checks alone, none of which flagged the IP,
+    // unless quota.refused-logins sends it to antivpn.allow-on-error like any failed lookup
+    private boolean admitLocally(Throwable error) {
+        return error instanceof QuotaExceededException
+                && !"error".equalsIgnoreCase(MAntiVPN.getConfigManager().getConfig().getString("quota.refused-logins", "local"));
+    }
+
+    // A lookup refused by the quota is audited apart from other failures
+    private String errorSource(Throwable error) {
+        return error instanceof QuotaExceededException ? "quota" : "error";
+    }
+
+    private Component errorMessage() {
+        return LegacyComponentSerializer.legacyAmpersand()
+                .deserialize(MAntiVPN.getConfigManager().getMessages().getString("General.error-message"));
+    }
+
+    private TraceRecorder traceRecorder() {
+        return recordOutcome ? MAntiVPN.getInstance().getTraceRecorder() : null;
+    }
+
+    // A login is audited once on its own thread, which is also where its trace is published
+    // A provisional login adds one DEFERRED_* record from the lookup's thread, where no trace is active
+    private void audit(String username, String playerIP, IPCheckResult result, String decision, String source, long startNanos) {
+        TraceRecorder traceRecorder = traceRecorder();
+        if (traceRecorder != null) {
+            traceRecorder.commit(decision, source);
+        }
+
+        AuditLogManager auditLogManager = MAntiVPN.getInstance().getAuditLogManager();
+        if (auditLogManager == null || !recordOutcome) {
+            return;
+        }
+
+        auditLogManager.record(AuditRecord.builder()
+                .timestamp(System.currentTimeMillis())
+                .ip(playerIP)
+                .username(username)
+                .vpn(result != null && result.vpn())
+                .proxy(result != null && result.proxy())
+                .tor(result != null && result.tor())
+                .datacenter(result != null && result.datacenter())
+                .residential(result != null && result.residential())
+                .threatScore(result != null ? result.threatScore() : 0.0)
+                .decision(decision)
+                .source(source)
+                .latencyMicros((System.nanoTime() - startNanos) / 1000L)
+                .build());
     }
 
     public String buildKickReason(IPCheckResult result, ConfigManager config) {
@@ -1,8 +1,12 @@
 package it.mattiolservices.mantivpn.utils;
 
 import com.velocitypowered.api.event.connection.PreLoginEvent;
+import it.mattiolservices.mantivpn.MAntiVPN;
 
+import java.net.Inet6Address;
+import java.net.InetAddress;
 import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
 
 public class AntiVPNUtils {
 
@@ -13,4 +17,96 @@ public class AntiVPNUtils {
         }
         return null;
     }
+
+    // IPv6 clients rotate addresses inside their prefix, so verdicts are keyed by the masked prefix
+    public static String cacheKey(String ip) {
+        if (ip == null || ip.indexOf(':') < 0) {
+            return ip;
+        }
+
+        int prefixLength = MAntiVPN.getConfigManager().getConfig().getInt("antivpn.ipv6-prefix-length", 64);
+        if (prefixLength <= 0 || prefixLength >= 128) {
+            return ip;
+        }
+
+        long[] address = parseIPv6(ip);
+        if (address == null) {
+            return ip;
+        }
+
+        long high = prefixLength >= 64 ? address[0] : address[0] & (-1L << (64 - prefixLength));
+        long low = prefixLength <= 64 ? 0L : address[1] & (-1L << (128 - prefixLength));
+        return formatIPv6(high, low) + "/" + prefixLength;
+    }
+
+    private static String formatIPv6(long high, long low) {
+        StringBuilder builder = new StringBuilder(40);
+        for (int group = 0; group < 8; group++) {
+            long half = group < 4 ? high : low;
+            int shift = 48 - (group % 4) * 16;
+            if (group > 0) {
+                builder.append(':');
+            }
+            builder.append(Long.toHexString((half >>> shift) & 0xFFFFL));
+        }
+        return builder.toString();
+    }
+
+    public static long parseIPv4(String ip) {
+        if (ip == null || ip.isEmpty()) {
+            return -1L;
+        }
+
+        long address = 0L;
+        int octet = 0;
+        int digits = 0;
+        int dots = 0;
+
+        for (int i = 0; i < ip.length(); i++) {
+            char c = ip.charAt(i);
+            if (c >= '0' && c <= '9') {
+                octet = octet * 10 + (c - '0');
+                if (++digits > 3 || octet > 255) {
+                    return -1L;
+                }
+            } else if (c == '.' && digits > 0 && dots < 3) {
+                address = (address << 8) | octet;
+                octet = 0;
+                digits = 0;
+                dots++;
+            } else {
+                return -1L;
+            }
+        }
+
+        if (dots != 3 || digits == 0) {
+            return -1L;
+        }
+        return (address << 8) | octet;
+    }
+
+    public static long[] parseIPv6(String ip) {
+        if (ip == null || ip.indexOf(':') < 0) {
+            return null;
+        }
+
+        try {
+            // A literal containing ':' is never resolved through DNS
+            InetAddress address = InetAddress.getByName(ip);
+            if (!(address instanceof Inet6Address)) {
+                return null;
+            }
+
+            byte[] bytes = address.getAddress();
+            long high = 0L;
+            long low = 0L;
+            for (int i = 0; i < 8; i++) {
+                high = (high << 8) | (bytes[i] & 0xFF);
+                low = (low << 8) | (bytes[i + 8] & 0xFF);
+            }
+            return new long[]{high, low};
+        } catch (UnknownHostException e) {
+            return null;
+        }
+    }
 }
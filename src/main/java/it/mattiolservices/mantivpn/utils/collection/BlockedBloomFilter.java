@@ -0,0 +1,62 @@
+package it.mattiolservices.mantivpn.utils.collection;
+
+// Bloom filter split into 512 bit blocks, every key sets and probes its bits inside a single block
+// so a lookup touches one cache line however many hashes are used
+public final class BlockedBloomFilter {
+
+    private static final int BLOCK_BITS = 512;
+    private static final int BLOCK_WORDS = BLOCK_BITS / Long.SIZE;
+    private static final int MAX_BLOCKS = 1 << 24;
+
+    private final long[] words;
+    private final int blockMask;
+    private final int hashes;
+
+    public BlockedBloomFilter(long expectedSize, int bitsPerKey) {
+        bitsPerKey = Math.max(1, bitsPerKey);
+        long blocksNeeded = Math.max(1L, (expectedSize * bitsPerKey + BLOCK_BITS - 1) / BLOCK_BITS);
+        int blocks = (int) Math.min(MAX_BLOCKS, Long.highestOneBit(blocksNeeded * 2 - 1));
+        this.words = new long[blocks * BLOCK_WORDS];
+        this.blockMask = blocks - 1;
+        this.hashes = Math.max(1, Math.min(16, (int) Math.round(bitsPerKey * Math.log(2))));
+    }
+
+    public void add(long key) {
+        long hash = mix(key);
+        int base = ((int) (hash >>> 40) & blockMask) * BLOCK_WORDS;
+        int bit = (int) hash;
+        int step = (int) (hash >>> 20) | 1;
+
+        for (int i = 0; i < hashes; i++) {
+            words[base + ((bit >>> 6) & (BLOCK_WORDS - 1))] |= 1L << bit;
+            bit += step;
+        }
+    }
+
+    public boolean mightContain(long key) {
+        long hash = mix(key);
+        int base = ((int) (hash >>> 40) & blockMask) * BLOCK_WORDS;
+        int bit = (int) hash;
+        int step = (int) (hash >>> 20) | 1;
+
+        for (int i = 0; i < hashes; i++) {
+            if ((words[base + ((bit >>> 6) & (BLOCK_WORDS - 1))] & (1L << bit)) == 0) {
+                return false;
+            }
+            bit += step;
+        }
+        return true;
+    }
+
+    public long sizeInBytes() {
+        return (long) words.length * Long.BYTES;
+    }
+
+    private static long mix(long key) {
+        key ^= key >>> 33;
+        key *= 0xFF51AFD7ED558CCDL;
+        key ^= key >>> 33;
+        key *= 0xC4CEB9FE1A85EC53L;
+        return key ^ (key >>> 33);
+    }
+}
@@ -0,0 +1,82 @@
+package it.mattiolservices.mantivpn.utils.collection;
+
+// Open addressing set of primitive ints with linear probing, 0 marks an empty slot
+public final class IntHashSet {
+
+    private int[] keys;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+
+    public IntHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.keys = new int[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public boolean add(int key) {
+        if (key == 0) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+
+        int slot = mix(key) & mask;
+        while (keys[slot] != 0) {
+            if (keys[slot] == key) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        keys[slot] = key;
+        if (++size * 2 > keys.length) {
+            rehash(keys.length << 1);
+        }
+        return true;
+    }
+
+    public boolean contains(int key) {
+        if (key == 0) {
+            return containsZero;
+        }
+
+        int slot = mix(key) & mask;
+        int current;
+        while ((current = keys[slot]) != 0) {
+            if (current == key) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        int[] previous = keys;
+        keys = new int[capacity];
+        mask = capacity - 1;
+
+        for (int key : previous) {
+            if (key != 0) {
+                int slot = mix(key) & mask;
+                while (keys[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = key;
+            }
+        }
+    }
+
+    private static int mix(int key) {
+        int h = key * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -0,0 +1,90 @@
+package it.mattiolservices.mantivpn.utils.collection;
+
+// Open addressing set of 128-bit keys stored as two longs, (0, 0) marks an empty slot
+public final class LongPairHashSet {
+
+    private long[] highs;
+    private long[] lows;
+    private int mask;
+    private int size;
+    private boolean containsZero;
+
+    public LongPairHashSet(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2 - 1)) << 1;
+        this.highs = new long[capacity];
+        this.lows = new long[capacity];
+        this.mask = capacity - 1;
+    }
+
+    public boolean add(long high, long low) {
+        if (high == 0L && low == 0L) {
+            if (containsZero) {
+                return false;
+            }
+            containsZero = true;
+            size++;
+            return true;
+        }
+
+        int slot = mix(high, low) & mask;
+        while (highs[slot] != 0L || lows[slot] != 0L) {
+            if (highs[slot] == high && lows[slot] == low) {
+                return false;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        highs[slot] = high;
+        lows[slot] = low;
+        if (++size * 2 > highs.length) {
+            rehash(highs.length << 1);
+        }
+        return true;
+    }
+
+    public boolean contains(long high, long low) {
+        if (high == 0L && low == 0L) {
+            return containsZero;
+        }
+
+        int slot = mix(high, low) & mask;
+        while (highs[slot] != 0L || lows[slot] != 0L) {
+            if (highs[slot] == high && lows[slot] == low) {
+                return true;
+            }
+            slot = (slot + 1) & mask;
+        }
+        return false;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        long[] previousHighs = highs;
+        long[] previousLows = lows;
+        highs = new long[capacity];
+        lows = new long[capacity];
+        mask = capacity - 1;
+
+        for (int i = 0; i < previousHighs.length; i++) {
+            long high = previousHighs[i];
+            long low = previousLows[i];
+            if (high != 0L || low != 0L) {
+                int slot = mix(high, low) & mask;
+                while (highs[slot] != 0L || lows[slot] != 0L) {
+                    slot = (slot + 1) & mask;
+                }
+                highs[slot] = high;
+                lows[slot] = low;
+            }
+        }
+    }
+
+    private static int mix(long high, long low) {
+        long h = (high * 0x9E3779B97F4A7C15L) ^ low;
+        h *= 0xC2B2AE3D27D4EB4FL;
+        return (int) (h ^ (h >>> 32));
+    }
+}
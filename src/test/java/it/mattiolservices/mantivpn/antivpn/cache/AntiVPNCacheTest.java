@@ -0,0 +1,51 @@
+package it.mattiolservices.mantivpn.antivpn.cache;
+
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import org.junit.jupiter.api.Test;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class AntiVPNCacheTest {
+
+    @Test
+    void shorterCacheTimeAppliesToLiveEntries() {
+        long now = System.currentTimeMillis();
+        AntiVPNCache cache = new AntiVPNCache(TimeUnit.HOURS.toMillis(1), 1000);
+        cache.restore("203.0.113.1", result("203.0.113.1", now - TimeUnit.MINUTES.toMillis(30)));
+        cache.restore("203.0.113.2", result("203.0.113.2", now));
+
+        cache.applyTtl(TimeUnit.MINUTES.toMillis(10));
+
+        Map<String, IPCheckResult> entries = entries(cache);
+        assertEquals(1, entries.size());
+        assertTrue(entries.containsKey("203.0.113.2"));
+        assertFalse(entries.containsKey("203.0.113.1"));
+    }
+
+    @Test
+    void longerCacheTimeKeepsEntriesWarm() throws Exception {
+        AntiVPNCache cache = new AntiVPNCache(50L, 1000);
+        cache.restore("203.0.113.3", result("203.0.113.3", System.currentTimeMillis()));
+
+        cache.applyTtl(TimeUnit.HOURS.toMillis(1));
+        Thread.sleep(100L);
+
+        assertTrue(entries(cache).containsKey("203.0.113.3"));
+    }
+
+    private static IPCheckResult result(String ip, long timestamp) {
+        return new IPCheckResult(ip, false, false, false, false, false, 0.0, "US", "ExampleISP", timestamp);
+    }
+
+    private static Map<String, IPCheckResult> entries(AntiVPNCache cache) {
+        Map<String, IPCheckResult> entries = new HashMap<>();
+        cache.forEachEntry(entries::put);
+        return entries;
+    }
+}
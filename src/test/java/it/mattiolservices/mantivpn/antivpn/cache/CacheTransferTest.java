@@ -0,0 +1,134 @@
+package it.mattiolservices.mantivpn.antivpn.cache;
+
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class CacheTransferTest {
+
+    private static final long HOUR = TimeUnit.HOURS.toMillis(1);
+
+    @TempDir
+    Path directory;
+
+    @Test
+    void roundTripKeepsEveryField() throws Exception {
+        long now = System.currentTimeMillis();
+        AntiVPNCache source = new AntiVPNCache(HOUR, 1000);
+        source.restore("203.0.113.1", new IPCheckResult("203.0.113.1", true, false, true, false, false,
+                0.92, "NL", "ExampleVPN", now - 1000));
+        source.restore("2001:db8::/64", new IPCheckResult("2001:db8::5", false, false, false, true, true,
+                0.1, null, null, now));
+
+        Path file = directory.resolve("exports/cache.mvc");
+        assertEquals(2, CacheTransfer.export(source, file));
+        assertFalse(Files.exists(directory.resolve("exports/cache.mvc.tmp")));
+
+        AntiVPNCache target = new AntiVPNCache(HOUR, 1000);
+        CacheTransfer.ImportResult result = CacheTransfer.importInto(target, file);
+        assertEquals(2, result.imported());
+        assertEquals(0, result.expired());
+        assertEquals(entries(source), entries(target));
+    }
+
+    @Test
+    void expiredEntriesAreSkipped() throws Exception {
+        long now = System.currentTimeMillis();
+        AntiVPNCache source = new AntiVPNCache(HOUR, 1000);
+        source.restore("198.51.100.1", new IPCheckResult("198.51.100.1", false, true, false, false, false,
+                0.5, "DE", "ExampleProxy", now - TimeUnit.MINUTES.toMillis(30)));
+        source.restore("198.51.100.2", new IPCheckResult("198.51.100.2", false, false, false, false, false,
+                0.0, "DE", "ExampleISP", now));
+
+        Path file = directory.resolve("cache.mvc");
+        CacheTransfer.export(source, file);
+
+        AntiVPNCache target = new AntiVPNCache(TimeUnit.MINUTES.toMillis(10), 1000);
+        CacheTransfer.ImportResult result = CacheTransfer.importInto(target, file);
+        assertEquals(1, result.imported());
+        assertEquals(1, result.expired());
+        assertTrue(entries(target).containsKey("198.51.100.2"));
+        assertFalse(entries(target).containsKey("198.51.100.1"));
+    }
+
+    @Test
+    void flippedByteIsRejected() throws Exception {
+        Path file = exportSample();
+        byte[] bytes = Files.readAllBytes(file);
+        bytes[bytes.length / 2] ^= 0x01;
+        Files.write(file, bytes);
+
+        assertRejected(file, IOException.class);
+    }
+
+    @Test
+    void truncatedFileIsRejected() throws Exception {
+        Path file = exportSample();
+        byte[] bytes = Files.readAllBytes(file);
+        Files.write(file, Arrays.copyOf(bytes, bytes.length - 4));
+
+        assertRejected(file, EOFException.class);
+    }
+
+    @Test
+    void unknownVersionIsRejected() throws Exception {
+        Path file = exportSample();
+        byte[] bytes = Files.readAllBytes(file);
+        ByteBuffer.wrap(bytes).putInt(4, 99);
+        Files.write(file, bytes);
+
+        IOException error = assertRejected(file, IOException.class);
+        assertEquals("Unsupported cache export version 99", error.getMessage());
+    }
+
+    @Test
+    void otherFilesAreRejected() throws Exception {
+        Path file = directory.resolve("notes.mvc");
+        Files.writeString(file, "not a cache export at all");
+
+        IOException error = assertRejected(file, IOException.class);
+        assertEquals("Not a cache export", error.getMessage());
+    }
+
+    private Path exportSample() throws IOException {
+        long now = System.currentTimeMillis();
+        AntiVPNCache source = new AntiVPNCache(HOUR, 1000);
+        for (int i = 0; i < 50; i++) {
+            source.restore("192.0.2." + i, new IPCheckResult("192.0.2." + i, i % 2 == 0, false, false, i % 3 == 0, false,
+                    i / 50.0, "US", "Provider" + i, now));
+        }
+
+        Path file = directory.resolve("sample.mvc");
+        CacheTransfer.export(source, file);
+        return file;
+    }
+
+    // Nothing reaches the cache when the file fails verification
+    private static <T extends IOException> T assertRejected(Path file, Class<T> type) {
+        AntiVPNCache target = new AntiVPNCache(HOUR, 1000);
+        T error = assertThrows(type, () -> CacheTransfer.importInto(target, file));
+        assertTrue(entries(target).isEmpty());
+        return error;
+    }
+
+    private static Map<String, IPCheckResult> entries(AntiVPNCache cache) {
+        Map<String, IPCheckResult> entries = new HashMap<>();
+        cache.forEachEntry(entries::put);
+        return entries;
+    }
+}
@@ -0,0 +1,44 @@
+package it.mattiolservices.mantivpn.antivpn.cache.shared;
+
+import org.junit.jupiter.api.Test;
+
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTimeoutPreemptively;
+
+// No Redis server is needed, both cases check that creation fails fast so the tier falls back to local only
+class RedisSharedVerdictCacheTest {
+
+    @Test
+    void refusedConnectionFailsCreation() throws Exception {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+            port = socket.getLocalPort();
+        }
+
+        assertTimeoutPreemptively(Duration.ofSeconds(2), () ->
+                assertThrows(RuntimeException.class, () -> create(port)));
+    }
+
+    @Test
+    void silentServerFailsWithinTheTimeout() throws Exception {
+        // Connections complete in the backlog but nothing ever answers the PING
+        try (ServerSocket socket = new ServerSocket(0, 8, InetAddress.getLoopbackAddress())) {
+            assertTimeoutPreemptively(Duration.ofSeconds(2), () ->
+                    assertThrows(RuntimeException.class, () -> create(socket.getLocalPort())));
+        }
+    }
+
+    @Test
+    void zeroTimeoutIsRejected() {
+        assertThrows(IllegalArgumentException.class, () ->
+                new RedisSharedVerdictCache("127.0.0.1", 6379, "", 0, 0, "mantivpn:test:", "mantivpn:test"));
+    }
+
+    private static RedisSharedVerdictCache create(int port) {
+        return new RedisSharedVerdictCache("127.0.0.1", port, "", 0, 200, "mantivpn:test:", "mantivpn:test");
+    }
+}
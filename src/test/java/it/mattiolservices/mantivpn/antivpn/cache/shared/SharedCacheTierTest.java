@@ -0,0 +1,91 @@
+package it.mattiolservices.mantivpn.antivpn.cache.shared;
+
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class SharedCacheTierTest {
+
+    private InMemorySharedVerdictCache backendA;
+    private InMemorySharedVerdictCache backendB;
+    private SharedCacheTier proxyA;
+    private SharedCacheTier proxyB;
+    private volatile long ttlMillis = TimeUnit.HOURS.toMillis(1);
+
+    @BeforeEach
+    void setUp() {
+        backendA = new InMemorySharedVerdictCache();
+        backendB = new InMemorySharedVerdictCache();
+        proxyA = new SharedCacheTier(backendA, () -> ttlMillis, 10L);
+        proxyB = new SharedCacheTier(backendB, () -> ttlMillis, 10L);
+    }
+
+    @AfterEach
+    void tearDown() {
+        proxyA.shutdown();
+        proxyB.shutdown();
+    }
+
+    @Test
+    void writeBehindReachesOtherProxies() throws Exception {
+        IPCheckResult result = new IPCheckResult("203.0.113.10", true, false, false, true, false,
+                0.75, "NL", "ExampleVPN", System.currentTimeMillis());
+
+        assertNull(proxyB.get("203.0.113.10"));
+        proxyA.put("203.0.113.10", result);
+        assertSame(result, proxyA.get("203.0.113.10"));
+
+        awaitTrue(() -> proxyB.get("203.0.113.10") != null);
+        assertEquals(result, proxyB.get("203.0.113.10"));
+    }
+
+    @Test
+    void invalidationReachesOtherProxies() throws Exception {
+        List<String> invalidated = new CopyOnWriteArrayList<>();
+        backendB.subscribeInvalidations(invalidated::add);
+
+        proxyA.put("203.0.113.20", new IPCheckResult("203.0.113.20", false, true, false, false, false,
+                0.5, "DE", "ExampleProxy", System.currentTimeMillis()));
+        awaitTrue(() -> proxyB.get("203.0.113.20") != null);
+
+        proxyA.invalidate("203.0.113.20");
+        awaitTrue(() -> invalidated.contains("203.0.113.20"));
+        assertNull(proxyB.get("203.0.113.20"));
+    }
+
+    @Test
+    void ttlChangeAppliesToTheNextFlush() throws Exception {
+        ttlMillis = 1L;
+        proxyA.put("203.0.113.40", new IPCheckResult("203.0.113.40", true, false, false, false, false,
+                0.9, "US", "ExampleVPN", System.currentTimeMillis()));
+        awaitTrue(() -> proxyA.get("203.0.113.40") == null);
+        assertNull(proxyB.get("203.0.113.40"));
+    }
+
+    @Test
+    void expiredEntriesAreNotServed() throws Exception {
+        backendA.putAll(Map.of("203.0.113.30", "{}"), 1L);
+        Thread.sleep(5L);
+        assertNull(backendB.get("203.0.113.30"));
+    }
+
+    private static void awaitTrue(BooleanSupplier condition) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(2);
+        while (!condition.getAsBoolean()) {
+            assertTrue(System.nanoTime() < deadline, "Timed out waiting for the shared cache");
+            Thread.sleep(5L);
+        }
+    }
+}
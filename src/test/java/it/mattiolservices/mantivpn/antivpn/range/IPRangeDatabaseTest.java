@@ -0,0 +1,139 @@
+package it.mattiolservices.mantivpn.antivpn.range;
+
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class IPRangeDatabaseTest {
+
+    @TempDir
+    Path directory;
+
+    private IPRangeDatabase database;
+
+    @BeforeEach
+    void setUp() {
+        database = new IPRangeDatabase(directory, Integer.MAX_VALUE);
+    }
+
+    @AfterEach
+    void tearDown() {
+        database.shutdown();
+    }
+
+    @Test
+    void rangeMembership() throws Exception {
+        write("hosting.csv", """
+                # start,end,flags,provider
+                203.0.113.0,203.0.113.255,datacenter,ExampleHost
+                198.51.100.0/24,,vpn,ExampleVPN
+                2001:db8::,2001:db8::ffff,proxy,ExampleProxy
+                """);
+        database.reload();
+
+        assertEquals(3, database.getRangeCount());
+
+        IPCheckResult hosting = database.lookup("203.0.113.17");
+        assertNotNull(hosting);
+        assertTrue(hosting.datacenter());
+        assertFalse(hosting.vpn());
+        assertEquals("ExampleHost", hosting.provider());
+
+        IPCheckResult vpn = database.lookup("198.51.100.255");
+        assertNotNull(vpn);
+        assertTrue(vpn.vpn());
+        assertEquals("ExampleVPN", vpn.provider());
+
+        IPCheckResult proxy = database.lookup("2001:db8::42");
+        assertNotNull(proxy);
+        assertTrue(proxy.proxy());
+
+        assertNull(database.lookup("203.0.114.0"));
+        assertNull(database.lookup("198.51.99.255"));
+        assertNull(database.lookup("2001:db8::1:0"));
+    }
+
+    @Test
+    void nestedRangeKeepsItsOwnFlags() throws Exception {
+        write("isp.csv", "10.0.0.0/16,,residential,ExampleISP\n");
+        write("vpn.csv", "10.0.5.0/24,,vpn,ExampleVPN\n");
+        database.reload();
+
+        IPCheckResult inside = database.lookup("10.0.5.9");
+        assertNotNull(inside);
+        assertTrue(inside.vpn());
+        assertFalse(inside.residential());
+        assertEquals("ExampleVPN", inside.provider());
+
+        for (String ip : new String[]{"10.0.4.255", "10.0.6.0", "10.0.0.1", "10.0.255.255"}) {
+            IPCheckResult outside = database.lookup(ip);
+            assertNotNull(outside, ip);
+            assertTrue(outside.residential(), ip);
+            assertFalse(outside.vpn(), ip);
+            assertEquals("ExampleISP", outside.provider(), ip);
+        }
+    }
+
+    @Test
+    void malformedLinesAreSkipped() throws Exception {
+        Path file = write("mixed.csv", """
+                192.0.2.0,192.0.2.127,vpn,Good
+                not,an,address
+                192.0.2.128
+                192.0.2.200,192.0.2.100,vpn,Backwards
+                999.0.0.1,999.0.0.2,vpn,Invalid
+                192.0.2.128,192.0.2.255,proxy,AlsoGood
+                2001:db8::ff,2001:db8::1,vpn,BackwardsV6
+                2001:db9::,2001:db8::ffff,vpn,BackwardsHighV6
+                2001:db8::1,2001:db8::ff,vpn,GoodV6
+                """);
+
+        ParsedRangeFile parsed = ParsedRangeFile.parse(file);
+        assertEquals(2, parsed.v4Count);
+        assertEquals(1, parsed.v6Count);
+        assertEquals(6, parsed.skippedLines);
+
+        database.reload();
+        assertEquals(3, database.getRangeCount());
+        assertTrue(database.lookup("192.0.2.5").vpn());
+        assertTrue(database.lookup("192.0.2.250").proxy());
+    }
+
+    @Test
+    void reloadPicksUpChangedAndRemovedFiles() throws Exception {
+        Path file = write("list.csv", "192.0.2.0/24,,vpn,First\n");
+        database.reload();
+        assertEquals("First", database.lookup("192.0.2.1").provider());
+        assertNull(database.lookup("198.51.100.1"));
+
+        Files.writeString(file, "198.51.100.0/24,,proxy,Second\n", StandardCharsets.UTF_8);
+        Files.setLastModifiedTime(file, FileTime.fromMillis(Files.getLastModifiedTime(file).toMillis() + 2000L));
+        database.reload();
+        assertNull(database.lookup("192.0.2.1"));
+        assertEquals("Second", database.lookup("198.51.100.1").provider());
+
+        Files.delete(file);
+        database.reload();
+        assertEquals(0, database.getRangeCount());
+        assertNull(database.lookup("198.51.100.1"));
+    }
+
+    private Path write(String name, String content) throws Exception {
+        Path file = directory.resolve(name);
+        Files.writeString(file, content, StandardCharsets.UTF_8);
+        return file;
+    }
+}
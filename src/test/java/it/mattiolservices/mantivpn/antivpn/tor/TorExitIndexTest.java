@@ -0,0 +1,103 @@
+package it.mattiolservices.mantivpn.antivpn.tor;
+
+import it.mattiolservices.mantivpn.antivpn.core.IPCheckResult;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TorExitIndexTest {
+
+    @TempDir
+    Path directory;
+
+    private TorExitIndex index;
+
+    @AfterEach
+    void tearDown() {
+        if (index != null) {
+            index.shutdown();
+        }
+    }
+
+    @Test
+    void localSourceFile() throws Exception {
+        write("exits.txt", "185.220.101.1\n2001:db8::1\n");
+        index = new TorExitIndex(directory, "exits.txt", null);
+        index.refresh();
+
+        assertEquals(2, index.size());
+        assertTrue(index.isExitNode("185.220.101.1"));
+        assertTrue(index.isExitNode("2001:db8::1"));
+        assertFalse(index.isExitNode("185.220.101.2"));
+
+        IPCheckResult result = index.lookup("185.220.101.1");
+        assertNotNull(result);
+        assertTrue(result.tor());
+        assertEquals("Tor", result.provider());
+        assertNull(index.lookup("185.220.101.2"));
+    }
+
+    @Test
+    void cachedListCoversTheFirstRefresh() throws Exception {
+        write("tor-exits.txt", "198.51.100.7\n");
+        index = new TorExitIndex(directory, "https://tor.example.invalid/torbulkexitlist", null);
+        index.loadCachedList();
+
+        assertEquals(1, index.size());
+        assertTrue(index.isExitNode("198.51.100.7"));
+    }
+
+    @Test
+    void cachedListNeverReplacesALoadedOne() throws Exception {
+        write("exits.txt", "203.0.113.1\n");
+        write("tor-exits.txt", "198.51.100.7\n");
+        index = new TorExitIndex(directory, "exits.txt", null);
+        index.refresh();
+        index.loadCachedList();
+
+        assertTrue(index.isExitNode("203.0.113.1"));
+        assertFalse(index.isExitNode("198.51.100.7"));
+    }
+
+    @Test
+    void refreshSwapsInTheNewList() throws Exception {
+        write("exits.txt", "192.0.2.1\n192.0.2.2\n");
+        index = new TorExitIndex(directory, "exits.txt", null);
+        index.refresh();
+
+        write("exits.txt", "192.0.2.2\n192.0.2.3\n");
+        index.refresh();
+
+        assertEquals(2, index.size());
+        assertFalse(index.isExitNode("192.0.2.1"));
+        assertTrue(index.isExitNode("192.0.2.2"));
+        assertTrue(index.isExitNode("192.0.2.3"));
+    }
+
+    @Test
+    void failedRefreshKeepsThePreviousList() throws Exception {
+        write("exits.txt", "192.0.2.9\n");
+        index = new TorExitIndex(directory, "exits.txt", null);
+        index.refresh();
+
+        Files.delete(directory.resolve("exits.txt"));
+        index.refresh();
+
+        assertEquals(1, index.size());
+        assertTrue(index.isExitNode("192.0.2.9"));
+    }
+
+    private void write(String name, String content) throws Exception {
+        Files.writeString(directory.resolve(name), content, StandardCharsets.UTF_8);
+    }
+}
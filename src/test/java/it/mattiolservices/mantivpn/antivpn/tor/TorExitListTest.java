@@ -0,0 +1,83 @@
+package it.mattiolservices.mantivpn.antivpn.tor;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TorExitListTest {
+
+    @Test
+    void bulkListMembership() throws Exception {
+        TorExitList exits = load("""
+                # torbulkexitlist
+                185.220.101.1
+                185.220.101.2
+
+                2001:db8::1
+                """);
+
+        assertEquals(3, exits.size());
+        assertTrue(exits.contains("185.220.101.1"));
+        assertTrue(exits.contains("185.220.101.2"));
+        assertTrue(exits.contains("2001:db8:0:0:0:0:0:1"));
+        assertFalse(exits.contains("185.220.101.3"));
+        assertFalse(exits.contains("2001:db8::2"));
+        assertFalse(exits.contains("not an ip"));
+    }
+
+    @Test
+    void exitAddressesFormat() throws Exception {
+        TorExitList exits = load("""
+                ExitNode 0011BD2485AD45D984EC4159C88FC066E5E3300E
+                Published 2026-10-18 10:00:00
+                LastStatus 2026-10-18 11:00:00
+                ExitAddress 203.0.113.7 2026-10-18 11:05:00
+                """);
+
+        assertEquals(1, exits.size());
+        assertEquals(0, exits.skippedLines());
+        assertTrue(exits.contains("203.0.113.7"));
+    }
+
+    @Test
+    void malformedLinesAreSkippedAndCounted() throws Exception {
+        TorExitList exits = load("""
+                198.51.100.4
+                300.1.1.1
+                198.51.100
+                garbage
+                2001:db8::zz
+                198.51.100.5
+                """);
+
+        assertEquals(2, exits.size());
+        assertEquals(4, exits.skippedLines());
+        assertTrue(exits.contains("198.51.100.4"));
+        assertTrue(exits.contains("198.51.100.5"));
+    }
+
+    @Test
+    void reloadedListReplacesThePreviousOne() throws Exception {
+        TorExitList first = load("192.0.2.1\n192.0.2.2\n");
+        TorExitList second = load("192.0.2.2\n192.0.2.3\n");
+
+        assertTrue(first.contains("192.0.2.1"));
+        assertFalse(second.contains("192.0.2.1"));
+        assertTrue(second.contains("192.0.2.2"));
+        assertTrue(second.contains("192.0.2.3"));
+        assertFalse(first.contains("192.0.2.3"));
+    }
+
+    @Test
+    void emptyListHoldsNothing() {
+        assertEquals(0, TorExitList.EMPTY.size());
+        assertFalse(TorExitList.EMPTY.contains("192.0.2.1"));
+        assertFalse(TorExitList.EMPTY.contains("2001:db8::1"));
+    }
+
+    private static TorExitList load(String content) throws Exception {
+        return TorExitList.parse(content);
+    }
+}
@@ -0,0 +1,172 @@
+package it.mattiolservices.mantivpn.simulation;
+
+import com.velocitypowered.api.event.connection.PreLoginEvent;
+import it.mattiolservices.mantivpn.MAntiVPN;
+import it.mattiolservices.mantivpn.antivpn.cache.AntiVPNCache;
+import it.mattiolservices.mantivpn.antivpn.lookup.IPLookupService;
+import it.mattiolservices.mantivpn.antivpn.manager.AntiVPNManager;
+import it.mattiolservices.mantivpn.antivpn.pipeline.DecisionPipeline;
+import it.mattiolservices.mantivpn.config.ConfigManager;
+import it.mattiolservices.mantivpn.http.HttpTransport;
+import it.mattiolservices.mantivpn.listener.JoinListener;
+import lombok.extern.slf4j.Slf4j;
+import org.slf4j.LoggerFactory;
+
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Load test harness, drives an isolated JoinListener against the mock API in its own JVM
+// Run with: ./gradlew simulateLogins -Prate=1000 -Pseconds=10, tuned through -Dsimulation.* system properties
+@Slf4j
+public class LoginStormSimulator {
+
+    private final HttpTransport httpTransport;
+
+    public LoginStormSimulator(HttpTransport httpTransport) {
+        this.httpTransport = httpTransport;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int loginsPerSecond = Math.max(1, args.length > 0 ? Integer.parseInt(args[0]) : 1000);
+        int seconds = Math.max(1, args.length > 1 ? Integer.parseInt(args[1]) : 10);
+
+        // The plugin reads its settings through MAntiVPN, a throwaway data directory stands in for the proxy's
+        MAntiVPN plugin = new MAntiVPN(null, LoggerFactory.getLogger("mAntiVPN"), Files.createTempDirectory("mantivpn-simulation"));
+        Field instance = MAntiVPN.class.getDeclaredField("instance");
+        instance.setAccessible(true);
+        instance.set(null, plugin);
+        ConfigManager.load();
+
+        HttpTransport httpTransport = new HttpTransport();
+        try {
+            SimulationReport report = new LoginStormSimulator(httpTransport).run(loginsPerSecond, seconds);
+            System.out.printf("Simulation finished: %d/%d logins in %.1fs (%.0f/s)%n",
+                    report.completed(), report.logins(), report.elapsedNanos() / 1_000_000_000.0, report.throughput());
+            System.out.printf("  Latency p50: %.2fms p99: %.2fms p999: %.2fms max: %.2fms%n",
+                    report.p50Nanos() / 1_000_000.0, report.p99Nanos() / 1_000_000.0,
+                    report.p999Nanos() / 1_000_000.0, report.maxNanos() / 1_000_000.0);
+            System.out.printf("  API calls: %d (%.3f per login) 429s: %d 5xx: %d%n",
+                    report.apiRequests(), report.apiCallsPerLogin(), report.rateLimited(), report.serverErrors());
+            System.out.printf("  Denied: %d Failed: %d Cached: %d Heap growth: %dMB%n",
+                    report.denied(), report.failed(), report.cachedEntries(), report.heapGrowthBytes() / (1024 * 1024));
+        } finally {
+            httpTransport.shutdown();
+        }
+    }
+
+    public SimulationReport run(int loginsPerSecond, int seconds) throws Exception {
+        ConfigManager config = MAntiVPN.getConfigManager();
+
+        MockDetectionServer mockServer = new MockDetectionServer(
+                Long.getLong("simulation.mock.latency-ms", 40L),
+                Long.getLong("simulation.mock.jitter-ms", 20L),
+                setting("simulation.mock.rate-limited-ratio", 0.0),
+                setting("simulation.mock.server-error-ratio", 0.0),
+                setting("simulation.mock.flagged-ratio", 0.1),
+                Math.max(1, Integer.getInteger("simulation.mock.threads", 32)));
+        ExecutorService workers = Executors.newFixedThreadPool(Math.max(1, Integer.getInteger("simulation.worker-threads", 64)), r -> {
+            Thread t = new Thread(r, "AntiVPN-Simulator-Worker");
+            t.setDaemon(true);
+            return t;
+        });
+        AntiVPNCache cache = new AntiVPNCache(config, false);
+
+        try {
+            AntiVPNManager manager = new AntiVPNManager(config, MAntiVPN.getInstance().getLogger(), httpTransport, mockServer.getBaseUrl(), null);
+            JoinListener listener = new JoinListener(null, new DecisionPipeline(new IPLookupService(cache, manager, null, null, null), null), false);
+            SyntheticIPGenerator generator = new SyntheticIPGenerator(
+                    setting("simulation.repeat-ratio", 0.3),
+                    Integer.getInteger("simulation.subnet-spread", 2000),
+                    setting("simulation.ipv6-ratio", 0.2));
+
+            int total = (int) Math.min(10_000_000L, (long) loginsPerSecond * seconds);
+            long[] latencies = new long[total];
+            AtomicInteger completed = new AtomicInteger();
+            AtomicInteger denied = new AtomicInteger();
+            AtomicInteger failed = new AtomicInteger();
+            CountDownLatch done = new CountDownLatch(total);
+
+            long heapBefore = usedHeap();
+            long intervalNanos = 1_000_000_000L / loginsPerSecond;
+            long startNanos = System.nanoTime();
+
+            for (int i = 0; i < total; i++) {
+                long wait = startNanos + i * intervalNanos - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+
+                String ip = generator.next();
+                String username = "Sim" + i;
+                // Latency is taken from submission so time spent queued for a worker counts
+                long submittedNanos = System.nanoTime();
+                workers.execute(() -> {
+                    try {
+                        PreLoginEvent event = new PreLoginEvent(SyntheticConnection.create(ip), username);
+                        listener.onPreLogin(event);
+                        if (!event.getResult().isAllowed()) {
+                            denied.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        failed.incrementAndGet();
+                    } finally {
+                        latencies[completed.getAndIncrement()] = System.nanoTime() - submittedNanos;
+                        done.countDown();
+                    }
+                });
+            }
+
+            done.await(seconds + 120L, TimeUnit.SECONDS);
+            long elapsedNanos = System.nanoTime() - startNanos;
+            workers.shutdownNow();
+            workers.awaitTermination(5, TimeUnit.SECONDS);
+
+            int finished = Math.min(completed.get(), total);
+            long[] sorted = Arrays.copyOf(latencies, finished);
+            Arrays.sort(sorted);
+
+            SimulationReport report = new SimulationReport(total, finished, denied.get(), failed.get(), elapsedNanos,
+                    percentile(sorted, 0.50), percentile(sorted, 0.99), percentile(sorted, 0.999),
+                    finished == 0 ? 0L : sorted[finished - 1],
+                    mockServer.getRequests().get(), mockServer.getRateLimited().get(), mockServer.getServerErrors().get(),
+                    usedHeap() - heapBefore, cache.getCacheSize());
+
+            log.info("[!] Login simulation finished: {} logins in {}ms, p50 {}us, p99 {}us, p999 {}us, {} API calls",
+                    finished, elapsedNanos / 1_000_000L, report.p50Nanos() / 1000L, report.p99Nanos() / 1000L,
+                    report.p999Nanos() / 1000L, report.apiRequests());
+            return report;
+        } finally {
+            workers.shutdownNow();
+            mockServer.stop();
+            cache.shutdown();
+        }
+    }
+
+    private static long percentile(long[] sorted, double quantile) {
+        if (sorted.length == 0) {
+            return 0L;
+        }
+        int index = (int) Math.ceil(quantile * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(index, sorted.length - 1))];
+    }
+
+    private static double setting(String key, double defaultValue) {
+        String value = System.getProperty(key);
+        return value == null ? defaultValue : Double.parseDouble(value);
+    }
+
+    // Collected on both sides so the difference reflects retained objects rather than garbage
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        System.gc();
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,123 @@
+package it.mattiolservices.mantivpn.simulation;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import lombok.Getter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+// Stands in for antivpn.cc with programmable latency and failure rates
+public class MockDetectionServer {
+
+    private static final Pattern IP_FIELD = Pattern.compile("\"ip\"\\s*:\\s*\"([^\"]+)\"");
+
+    private final HttpServer server;
+    private final ExecutorService handlerExecutor;
+    private final long latencyMillis;
+    private final long jitterMillis;
+    private final double rateLimitedRatio;
+    private final double serverErrorRatio;
+    private final double flaggedRatio;
+
+    @Getter
+    private final AtomicLong requests = new AtomicLong();
+    @Getter
+    private final AtomicLong rateLimited = new AtomicLong();
+    @Getter
+    private final AtomicLong serverErrors = new AtomicLong();
+
+    public MockDetectionServer(long latencyMillis, long jitterMillis, double rateLimitedRatio,
+                               double serverErrorRatio, double flaggedRatio, int threads) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.jitterMillis = jitterMillis;
+        this.rateLimitedRatio = rateLimitedRatio;
+        this.serverErrorRatio = serverErrorRatio;
+        this.flaggedRatio = flaggedRatio;
+        this.handlerExecutor = Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "AntiVPN-MockAPI");
+            t.setDaemon(true);
+            return t;
+        });
+
+        this.server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 1024);
+        this.server.createContext("/api/check", this::handle);
+        this.server.createContext("/api/test-check", this::handle);
+        this.server.setExecutor(handlerExecutor);
+        this.server.start();
+    }
+
+    public String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        requests.incrementAndGet();
+
+        String ip;
+        try (InputStream body = exchange.getRequestBody()) {
+            Matcher matcher = IP_FIELD.matcher(new String(body.readAllBytes(), StandardCharsets.UTF_8));
+            ip = matcher.find() ? matcher.group(1) : "";
+        }
+
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        long delay = latencyMillis + (jitterMillis > 0 ? random.nextLong(jitterMillis + 1) : 0L);
+        if (delay > 0) {
+            try {
+                Thread.sleep(delay);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
+        double roll = random.nextDouble();
+        if (roll < rateLimitedRatio) {
+            rateLimited.incrementAndGet();
+            respond(exchange, 429, "{\"error\":\"rate limited\"}");
+            return;
+        }
+        if (roll < rateLimitedRatio + serverErrorRatio) {
+            serverErrors.incrementAndGet();
+            respond(exchange, 503, "{\"error\":\"unavailable\"}");
+            return;
+        }
+
+        // The verdict depends on the IP only, so repeated lookups agree
+        boolean flagged = (ip.hashCode() & 0x7FFFFFFF) % 10_000 < flaggedRatio * 10_000;
+        respond(exchange, 200, "{\"vpn\":" + flagged
+                + ",\"proxy\":false,\"tor\":false,\"datacenter\":" + flagged
+                + ",\"residential\":" + !flagged
+                + ",\"threat_score\":" + (flagged ? 0.9 : 0.1)
+                + ",\"country\":\"ZZ\",\"provider\":\"Simulated\"}");
+    }
+
+    private void respond(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, bytes.length);
+        try (OutputStream out = exchange.getResponseBody()) {
+            out.write(bytes);
+        }
+    }
+
+    public void stop() {
+        server.stop(0);
+        handlerExecutor.shutdownNow();
+        try {
+            handlerExecutor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,27 @@
+package it.mattiolservices.mantivpn.simulation;
+
+public record SimulationReport(
+        int logins,
+        int completed,
+        int denied,
+        int failed,
+        long elapsedNanos,
+        long p50Nanos,
+        long p99Nanos,
+        long p999Nanos,
+        long maxNanos,
+        long apiRequests,
+        long rateLimited,
+        long serverErrors,
+        long heapGrowthBytes,
+        long cachedEntries
+) {
+
+    public double throughput() {
+        return elapsedNanos == 0 ? 0.0 : completed * 1_000_000_000.0 / elapsedNanos;
+    }
+
+    public double apiCallsPerLogin() {
+        return completed == 0 ? 0.0 : (double) apiRequests / completed;
+    }
+}
@@ -0,0 +1,32 @@
+package it.mattiolservices.mantivpn.simulation;
+
+import com.velocitypowered.api.network.ProtocolVersion;
+import com.velocitypowered.api.proxy.InboundConnection;
+
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.util.Optional;
+
+final class SyntheticConnection {
+
+    private SyntheticConnection() {
+    }
+
+    // Only the calls a PreLoginEvent handler makes are answered, the rest return null
+    static InboundConnection create(String ip) {
+        InetSocketAddress address = new InetSocketAddress(ip, 25565);
+        return (InboundConnection) Proxy.newProxyInstance(
+                InboundConnection.class.getClassLoader(),
+                new Class<?>[]{InboundConnection.class},
+                (proxy, method, args) -> switch (method.getName()) {
+                    case "getRemoteAddress" -> address;
+                    case "getVirtualHost", "getRawVirtualHost" -> Optional.empty();
+                    case "isActive" -> true;
+                    case "getProtocolVersion" -> ProtocolVersion.MAXIMUM_VERSION;
+                    case "toString" -> "SyntheticConnection[" + ip + "]";
+                    case "hashCode" -> System.identityHashCode(proxy);
+                    case "equals" -> proxy == args[0];
+                    default -> null;
+                });
+    }
+}
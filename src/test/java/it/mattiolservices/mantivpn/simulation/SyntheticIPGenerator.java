@@ -0,0 +1,51 @@
+package it.mattiolservices.mantivpn.simulation;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Addresses come from 10.0.0.0/8 and 2001:db8::/32, a subnet is a /24 or a /48
+public class SyntheticIPGenerator {
+
+    private static final int RECENT_CAPACITY = 4096;
+
+    private final double repeatRatio;
+    private final int subnetSpread;
+    private final double ipv6Ratio;
+    private final AtomicReferenceArray<String> recent;
+    private final AtomicLong generated;
+
+    public SyntheticIPGenerator(double repeatRatio, int subnetSpread, double ipv6Ratio) {
+        this.repeatRatio = repeatRatio;
+        this.subnetSpread = Math.max(1, Math.min(subnetSpread, 1 << 16));
+        this.ipv6Ratio = ipv6Ratio;
+        this.recent = new AtomicReferenceArray<>(RECENT_CAPACITY);
+        this.generated = new AtomicLong();
+    }
+
+    public String next() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+
+        long count = generated.get();
+        if (count > 0 && random.nextDouble() < repeatRatio) {
+            String repeated = recent.get((int) (random.nextLong(Math.min(count, RECENT_CAPACITY))));
+            if (repeated != null) {
+                return repeated;
+            }
+        }
+
+        int subnet = random.nextInt(subnetSpread);
+        String ip;
+        if (random.nextDouble() < ipv6Ratio) {
+            // A handful of /64s per subnet, each host on a random interface identifier
+            ip = String.format("2001:db8:%x:%x:%x:%x:%x:%x", subnet, random.nextInt(4),
+                    random.nextInt(0x10000), random.nextInt(0x10000), random.nextInt(0x10000), random.nextInt(0x10000));
+        } else {
+            ip = "10." + (subnet >>> 8) + "." + (subnet & 0xFF) + "." + (1 + random.nextInt(254));
+        }
+
+        long index = generated.getAndIncrement();
+        recent.set((int) (index % RECENT_CAPACITY), ip);
+        return ip;
+    }
+}